@@ -0,0 +1,53 @@
+package com.github.checketts.cloud.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * A fully read {@link ClientHttpResponse} that can be handed out again, e.g. from a cache.
+ */
+class BufferedClientHttpResponse implements ClientHttpResponse {
+
+    private final HttpStatus status;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    BufferedClientHttpResponse(HttpStatus status, HttpHeaders headers, byte[] body) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public HttpStatus getStatusCode() {
+        return status;
+    }
+
+    @Override
+    public int getRawStatusCode() {
+        return status.value();
+    }
+
+    @Override
+    public String getStatusText() {
+        return status.getReasonPhrase();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,30 +1,72 @@
 package com.github.checketts.cloud.config;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.config.client.ConfigClientProperties;
 import org.springframework.cloud.config.client.ConfigServicePropertySourceLocator;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.concurrent.TimeUnit;
+
 // Needed at Bootstrap configuration time, see spring.factories
 @Configuration
 @ConditionalOnProperty(value = "spring.cloud.config.enabled")
+@EnableConfigurationProperties({ConfigClientTransportProperties.class, ConfigClientSnapshotProperties.class})
 public class ConfigClientBootstrapConfiguration {
 
-    @Autowired
-    public void configureCloudConfigRestTemplate(@Value("${config.client.secret}") String configClientSecret,
-                                                 ConfigServicePropertySourceLocator locator) {
-        RestTemplate template = new RestTemplate();
+    /**
+     * Same bean name as in {@link org.springframework.cloud.config.client.ConfigServiceBootstrapConfiguration}, so
+     * this locator replaces the default one regardless of the order the bootstrap configurations are loaded in.
+     */
+    @Bean
+    public ConfigServicePropertySourceLocator configServicePropertySource(
+            ConfigClientProperties clientProperties,
+            ConfigClientTransportProperties transportProperties,
+            ConfigClientSnapshotProperties snapshotProperties,
+            @Value("${config.client.secret}") String configClientSecret) {
+        RestTemplate template = new RestTemplate(requestFactory(transportProperties));
         template.getInterceptors().add(authInterceptor(configClientSecret));
+        template.getInterceptors().add(new ETagCachingInterceptor());
+        template.getInterceptors().add(new RetryingInterceptor(transportProperties.getMaxAttempts(),
+                transportProperties.getInitialBackoffMillis(), transportProperties.getMaxBackoffMillis()));
 
+        SnapshotConfigServicePropertySourceLocator locator =
+                new SnapshotConfigServicePropertySourceLocator(clientProperties, snapshotProperties);
         locator.setRestTemplate(template);
+        return locator;
+    }
+
+    /**
+     * Keeps connections (and TLS sessions) to the config server alive between bootstrap and refreshes, and asks for
+     * gzip compressed responses which Apache HttpClient decompresses transparently.
+     */
+    private HttpComponentsClientHttpRequestFactory requestFactory(ConfigClientTransportProperties properties) {
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setMaxConnTotal(properties.getMaxConnections())
+                .setMaxConnPerRoute(properties.getMaxConnections())
+                .setConnectionTimeToLive(properties.getConnectionTimeToLiveSeconds(), TimeUnit.SECONDS)
+                .evictIdleConnections(properties.getMaxIdleSeconds(), TimeUnit.SECONDS)
+                .useSystemProperties()
+                .build();
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(properties.getConnectTimeoutMillis());
+        requestFactory.setConnectionRequestTimeout(properties.getConnectTimeoutMillis());
+        requestFactory.setReadTimeout(properties.getReadTimeoutMillis());
+        return requestFactory;
     }
 
     private ClientHttpRequestInterceptor authInterceptor(final String configClientSecret) {
+        final String authorization = "Bearer " + configClientSecret;
         return (request, body, execution) -> {
-            request.getHeaders().add("Authorization", "Bearer " + configClientSecret);
+            request.getHeaders().set(HttpHeaders.AUTHORIZATION, authorization);
             return execution.execute(request, body);
         };
     }
@@ -0,0 +1,44 @@
+package com.github.checketts.cloud.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("config.client.snapshot")
+public class ConfigClientSnapshotProperties {
+    /**
+     * Whether fetched configuration is persisted and used to start without waiting for the config server. Off by
+     * default because the snapshot holds decrypted values.
+     */
+    private boolean enabled = false;
+    /**
+     * Directory of the snapshot files, readable by the application user only.
+     */
+    private String directory = System.getProperty("java.io.tmpdir") + "/config-client-snapshots";
+    /**
+     * Snapshots older than this are not used to start from.
+     */
+    private long maxAgeHours = 7 * 24;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxAgeHours() {
+        return maxAgeHours;
+    }
+
+    public void setMaxAgeHours(long maxAgeHours) {
+        this.maxAgeHours = maxAgeHours;
+    }
+}
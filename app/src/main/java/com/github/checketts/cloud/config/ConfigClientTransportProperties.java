@@ -0,0 +1,91 @@
+package com.github.checketts.cloud.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("config.client.transport")
+public class ConfigClientTransportProperties {
+    /**
+     * Maximum number of kept-alive connections to the config server.
+     */
+    private int maxConnections = 4;
+    private int connectTimeoutMillis = 2000;
+    private int readTimeoutMillis = 10_000;
+    /**
+     * How long a pooled connection is reused at most, so DNS or load balancer changes are eventually picked up.
+     */
+    private long connectionTimeToLiveSeconds = 300;
+    /**
+     * Pooled connections idle for longer than this are closed.
+     */
+    private long maxIdleSeconds = 60;
+    /**
+     * Attempts per request, including the first one, on connection failures and 502/503/504 responses.
+     */
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 200;
+    private long maxBackoffMillis = 5000;
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getConnectionTimeToLiveSeconds() {
+        return connectionTimeToLiveSeconds;
+    }
+
+    public void setConnectionTimeToLiveSeconds(long connectionTimeToLiveSeconds) {
+        this.connectionTimeToLiveSeconds = connectionTimeToLiveSeconds;
+    }
+
+    public long getMaxIdleSeconds() {
+        return maxIdleSeconds;
+    }
+
+    public void setMaxIdleSeconds(long maxIdleSeconds) {
+        this.maxIdleSeconds = maxIdleSeconds;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+}
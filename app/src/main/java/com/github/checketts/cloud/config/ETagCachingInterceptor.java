@@ -0,0 +1,57 @@
+package com.github.checketts.cloud.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends {@code If-None-Match} with the ETag of the last response for the same URI and replays that response when
+ * the config server answers 304, so callers like
+ * {@link org.springframework.cloud.config.client.ConfigServicePropertySourceLocator} never see the 304.
+ */
+public class ETagCachingInterceptor implements ClientHttpRequestInterceptor {
+
+    private final Map<URI, BufferedClientHttpResponse> lastResponses = new ConcurrentHashMap<>();
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        if (request.getMethod() != HttpMethod.GET) {
+            return execution.execute(request, body);
+        }
+        URI uri = request.getURI();
+        BufferedClientHttpResponse lastResponse = lastResponses.get(uri);
+        if (lastResponse != null) {
+            request.getHeaders().setIfNoneMatch(lastResponse.getHeaders().getETag());
+        }
+
+        ClientHttpResponse response = execution.execute(request, body);
+        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && lastResponse != null) {
+            response.close();
+            return lastResponse;
+        }
+        if (response.getStatusCode() != HttpStatus.OK || response.getHeaders().getETag() == null) {
+            return response;
+        }
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(response.getHeaders());
+            BufferedClientHttpResponse buffered = new BufferedClientHttpResponse(HttpStatus.OK, headers,
+                    StreamUtils.copyToByteArray(response.getBody()));
+            lastResponses.put(uri, buffered);
+            return buffered;
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.checketts.cloud.config;
+
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertySource;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the property sources fetched from the config server: a header followed by length-prefixed
+ * UTF-8 strings, read back through a memory mapping without any parsing beyond the string boundaries. Values are
+ * stored as strings, which is how the client environment resolves them anyway.
+ */
+class EnvironmentSnapshotFile {
+
+    private static final int MAGIC = 0x43464753;
+    private static final int FORMAT_VERSION = 1;
+
+    private EnvironmentSnapshotFile() {
+    }
+
+    /**
+     * Replaces the snapshot atomically, so a crash while writing never leaves a truncated snapshot behind.
+     */
+    static void write(Path file, Collection<PropertySource<?>> sources) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system, permissions are left to the directory
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(sources.size());
+                for (PropertySource<?> source : sources) {
+                    EnumerablePropertySource<?> enumerable = (EnumerablePropertySource<?>) source;
+                    writeString(out, source.getName());
+                    out.writeInt(enumerable.getPropertyNames().length);
+                    for (String name : enumerable.getPropertyNames()) {
+                        writeString(out, name);
+                        writeString(out, String.valueOf(enumerable.getProperty(name)));
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static CompositePropertySource read(Path file, String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a config snapshot or unsupported format: " + file);
+            }
+            List<PropertySource<?>> sources = new ArrayList<>();
+            for (int sourceCount = buffer.getInt(); sourceCount > 0; sourceCount--) {
+                String sourceName = readString(buffer);
+                Map<String, Object> properties = new LinkedHashMap<>();
+                for (int propertyCount = buffer.getInt(); propertyCount > 0; propertyCount--) {
+                    properties.put(readString(buffer), readString(buffer));
+                }
+                sources.add(new MapPropertySource(sourceName, properties));
+            }
+            CompositePropertySource composite = new CompositePropertySource(name);
+            sources.forEach(composite::addPropertySource);
+            return composite;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
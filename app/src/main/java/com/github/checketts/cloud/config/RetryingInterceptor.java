@@ -0,0 +1,75 @@
+package com.github.checketts.cloud.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries requests that failed to connect or got a 502, 503 or 504, waiting a random time up to an exponentially
+ * growing bound in between ("full jitter"), so a fleet of instances does not retry in lockstep against a restarting
+ * config server. Must be the last interceptor: each retry then executes a fresh request.
+ */
+class RetryingInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingInterceptor.class);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    RetryingInterceptor(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                if (attempt == maxAttempts || !isRetryable(response.getStatusCode())) {
+                    return response;
+                }
+                LOG.warn("Config server unavailable, retrying. uri={}, status={}, attempt={}", request.getURI(),
+                        response.getStatusCode(), attempt);
+                response.close();
+            } catch (SocketTimeoutException e) {
+                // The server accepted the request but is slow to answer, a retry would most likely time out as well
+                throw e;
+            } catch (IOException e) {
+                if (attempt == maxAttempts) {
+                    throw e;
+                }
+                LOG.warn("Cannot reach config server, retrying. uri={}, attempt={}, error={}", request.getURI(),
+                        attempt, e.toString());
+            }
+            backOff(attempt);
+        }
+    }
+
+    private static boolean isRetryable(HttpStatus status) {
+        return status == HttpStatus.BAD_GATEWAY || status == HttpStatus.SERVICE_UNAVAILABLE
+                || status == HttpStatus.GATEWAY_TIMEOUT;
+    }
+
+    private void backOff(int attempt) throws InterruptedIOException {
+        long bound = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
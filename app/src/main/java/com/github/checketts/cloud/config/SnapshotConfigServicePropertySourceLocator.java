@@ -0,0 +1,141 @@
+package com.github.checketts.cloud.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.config.client.ConfigClientProperties;
+import org.springframework.cloud.config.client.ConfigServicePropertySourceLocator;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persists the last configuration fetched from the config server to a local snapshot, and starts the application
+ * from that snapshot instead of waiting for the server. The server is then asked in the background; if the
+ * repository version differs the property source switches to the server's configuration and
+ * {@link SnapshotSwapRefresher} refreshes the application, so beans bound at startup pick it up. Without a usable
+ * snapshot, or on refresh, the server is asked directly.
+ */
+public class SnapshotConfigServicePropertySourceLocator extends ConfigServicePropertySourceLocator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotConfigServicePropertySourceLocator.class);
+    private static final String PROPERTY_SOURCE_NAME = "configService";
+    private static final String REPOSITORY_VERSION = "cloud.config.environment.repository.version";
+    // A refresh creates a new bootstrap context and locator, it must see the server's configuration, not the snapshot
+    private static final AtomicBoolean SNAPSHOT_USED = new AtomicBoolean();
+
+    private final ConfigClientSnapshotProperties snapshotProperties;
+    private final ExecutorService revalidationExecutor;
+    private final CompletableFuture<Void> swapped = new CompletableFuture<>();
+
+    public SnapshotConfigServicePropertySourceLocator(ConfigClientProperties defaultProperties,
+                                                      ConfigClientSnapshotProperties snapshotProperties) {
+        super(defaultProperties);
+        this.snapshotProperties = snapshotProperties;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-snapshot-");
+        threadFactory.setDaemon(true);
+        this.revalidationExecutor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    @Override
+    public PropertySource<?> locate(Environment environment) {
+        if (!snapshotProperties.isEnabled()) {
+            return super.locate(environment);
+        }
+        Path file = snapshotFile(environment);
+        CompositePropertySource snapshot = SNAPSHOT_USED.compareAndSet(false, true) ? readSnapshot(file) : null;
+        if (snapshot == null) {
+            PropertySource<?> fetched = super.locate(environment);
+            save(file, fetched);
+            return fetched;
+        }
+
+        LOG.info("Starting from config snapshot, revalidating against config server in the background. file={}, "
+                + "version={}", file, snapshot.getProperty(REPOSITORY_VERSION));
+        SwappablePropertySource source = new SwappablePropertySource(PROPERTY_SOURCE_NAME, snapshot);
+        revalidationExecutor.execute(() -> revalidate(environment, file, source));
+        return source;
+    }
+
+    private void revalidate(Environment environment, Path file, SwappablePropertySource source) {
+        PropertySource<?> fetched;
+        try {
+            fetched = super.locate(environment);
+        } catch (RuntimeException e) {
+            LOG.warn("Cannot revalidate config snapshot, keeping it. file={}", file, e);
+            return;
+        }
+        if (!(fetched instanceof CompositePropertySource)) {
+            LOG.warn("Config server unavailable, keeping config snapshot. file={}", file);
+            return;
+        }
+        save(file, fetched);
+        Object snapshotVersion = source.getProperty(REPOSITORY_VERSION);
+        Object version = fetched.getProperty(REPOSITORY_VERSION);
+        if (snapshotVersion == null || !snapshotVersion.equals(version)) {
+            source.swap((CompositePropertySource) fetched);
+            LOG.info("Config changed since snapshot, switched to config server's. snapshotVersion={}, version={}",
+                    snapshotVersion, version);
+            swapped.complete(null);
+        }
+    }
+
+    /**
+     * Runs {@code action} once the snapshot the application started from was switched to the config server's
+     * configuration, right away if it already was. Never runs when no snapshot was used or it was still current.
+     */
+    void whenSwapped(Runnable action) {
+        swapped.thenRun(action);
+    }
+
+    private CompositePropertySource readSnapshot(Path file) {
+        try {
+            Instant modified = Files.getLastModifiedTime(file).toInstant();
+            if (modified.isBefore(Instant.now().minus(Duration.ofHours(snapshotProperties.getMaxAgeHours())))) {
+                LOG.info("Config snapshot too old to start from. file={}, modified={}", file, modified);
+                return null;
+            }
+            return EnvironmentSnapshotFile.read(file, PROPERTY_SOURCE_NAME);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot read config snapshot. file={}", file, e);
+            return null;
+        }
+    }
+
+    private void save(Path file, PropertySource<?> fetched) {
+        if (!(fetched instanceof CompositePropertySource)) {
+            return;
+        }
+        try {
+            EnvironmentSnapshotFile.write(file, ((CompositePropertySource) fetched).getPropertySources());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot write config snapshot. file={}", file, e);
+        }
+    }
+
+    private Path snapshotFile(Environment environment) {
+        String name = environment.getProperty("spring.cloud.config.name",
+                environment.getProperty("spring.application.name", "application"));
+        String profiles = environment.getProperty("spring.cloud.config.profile",
+                StringUtils.arrayToCommaDelimitedString(environment.getActiveProfiles()));
+        String label = environment.getProperty("spring.cloud.config.label", "master");
+        String fileName = (name + "-" + (profiles.isEmpty() ? "default" : profiles) + "-" + label)
+                .replaceAll("[^\\w.\\-,]", "_");
+        return Paths.get(snapshotProperties.getDirectory(), fileName + ".snapshot");
+    }
+}
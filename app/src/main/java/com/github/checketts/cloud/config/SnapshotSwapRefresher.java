@@ -0,0 +1,44 @@
+package com.github.checketts.cloud.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Map;
+
+/**
+ * Refreshes the application once {@link SnapshotConfigServicePropertySourceLocator} switched from the snapshot it
+ * started from to the config server's configuration, so {@code @ConfigurationProperties} beans are rebound and
+ * refresh scoped beans recreated with the server's values, as after {@code /refresh}. Registered in
+ * {@code spring.factories} rather than as a bean, as the locator lives in the bootstrap context, whose events do not
+ * reach the application.
+ */
+public class SnapshotSwapRefresher implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotSwapRefresher.class);
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        ConfigurableApplicationContext context = event.getApplicationContext();
+        // Also ready events of the bootstrap context, which has no refresher
+        Map<String, ContextRefresher> refreshers = context.getBeansOfType(ContextRefresher.class);
+        if (refreshers.isEmpty()) {
+            return;
+        }
+        ContextRefresher refresher = refreshers.values().iterator().next();
+        BeanFactoryUtils.beansOfTypeIncludingAncestors(context, SnapshotConfigServicePropertySourceLocator.class)
+                .values().forEach(locator -> locator.whenSwapped(() -> refresh(refresher)));
+    }
+
+    private static void refresh(ContextRefresher refresher) {
+        try {
+            LOG.info("Refreshed after switching from config snapshot. keys={}", refresher.refresh());
+        } catch (RuntimeException e) {
+            LOG.warn("Cannot refresh after switching from config snapshot, changes apply on the next refresh", e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.checketts.cloud.config;
+
+import org.springframework.core.env.EnumerablePropertySource;
+
+/**
+ * A property source whose content can be replaced after it was added to an environment, e.g. once configuration
+ * started from a snapshot has been revalidated against the config server.
+ */
+class SwappablePropertySource extends EnumerablePropertySource<Object> {
+
+    private volatile EnumerablePropertySource<?> delegate;
+
+    SwappablePropertySource(String name, EnumerablePropertySource<?> delegate) {
+        super(name, new Object());
+        this.delegate = delegate;
+    }
+
+    void swap(EnumerablePropertySource<?> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return delegate.getProperty(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return delegate.getPropertyNames();
+    }
+
+    @Override
+    public boolean containsProperty(String name) {
+        return delegate.containsProperty(name);
+    }
+}
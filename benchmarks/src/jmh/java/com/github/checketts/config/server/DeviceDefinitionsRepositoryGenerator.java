@@ -0,0 +1,156 @@
+package com.github.checketts.config.server;
+
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a native config repository with a synthetic {@code deviceDefinitions} tree, laid out like
+ * {@code sample-config-repo}: {@code application.yml} with the keys to sanitize, {@code application-bench.yml} with
+ * the device definitions and {@code benchService-bench.yml} assigning some of the devices to the service.
+ * <p>
+ * Each of the {@code types} root types has {@code subtypes} subtypes per level down to {@code depth} levels, every
+ * type carries defaults and the deepest subtypes hold {@code devicesPerSubtype} devices. {@code cipherDensity} is the
+ * fraction of device properties that are encrypted with {@link #KEY} under the {@link #KEY_ALIAS} alias. Output is
+ * deterministic apart from the ciphertexts' random IVs.
+ * <p>
+ * The main method writes a repository to serve with the {@code native} profile:
+ * {@code <directory> [types subtypes depth devicesPerSubtype propertiesPerDevice cipherDensity assignedDevices]}.
+ */
+public class DeviceDefinitionsRepositoryGenerator {
+
+    public static final String APPLICATION = "benchService";
+    public static final String PROFILE = "bench";
+    public static final String KEY_ALIAS = "bench_v1";
+    public static final String KEY = "symmetricKeyValue_bench";
+    public static final String SALT = "deadbeef";
+    // Same rules as sample-config-repo/application.yml
+    public static final List<String> KEYS_TO_SANITIZE = Arrays.asList("password", "secret", "key", ".*credentials.*",
+            "vcap_services", ".*\\.keys\\..*", ".*\\.secrets.*", "pass", "salt", "token", "deviceDefinitions.*user",
+            "deviceDefinitions.*username");
+
+    private final int types;
+    private final int subtypes;
+    private final int depth;
+    private final int devicesPerSubtype;
+    private final int propertiesPerDevice;
+    private final double cipherDensity;
+    private final int assignedDevices;
+    private final TextEncryptor encryptor;
+    private final Random random = new Random(42);
+    private int deviceCount;
+
+    public DeviceDefinitionsRepositoryGenerator(int types, int subtypes, int depth, int devicesPerSubtype,
+                                                int propertiesPerDevice, double cipherDensity, int assignedDevices,
+                                                TextEncryptor encryptor) {
+        this.types = types;
+        this.subtypes = subtypes;
+        this.depth = depth;
+        this.devicesPerSubtype = devicesPerSubtype;
+        this.propertiesPerDevice = propertiesPerDevice;
+        this.cipherDensity = cipherDensity;
+        this.assignedDevices = assignedDevices;
+        this.encryptor = encryptor;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: <directory> [types subtypes depth devicesPerSubtype propertiesPerDevice "
+                    + "cipherDensity assignedDevices]");
+            System.exit(1);
+        }
+        Path directory = Files.createDirectories(Paths.get(args[0]));
+        DeviceDefinitionsRepositoryGenerator generator = new DeviceDefinitionsRepositoryGenerator(
+                intArg(args, 1, 10), intArg(args, 2, 3), intArg(args, 3, 2), intArg(args, 4, 20),
+                intArg(args, 5, 4), args.length > 6 ? Double.parseDouble(args[6]) : 0.25, intArg(args, 7, 10),
+                Encryptors.text(KEY, SALT));
+        int devices = generator.generate(directory);
+        System.out.printf("directory=%s devices=%d%nRegister the key to serve it: config.server.encrypt.keys.%s=%s%n",
+                directory, devices, KEY_ALIAS, KEY);
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * @return the number of devices defined
+     */
+    public int generate(Path directory) throws IOException {
+        deviceCount = 0;
+        try (BufferedWriter writer = writer(directory, "application.yml")) {
+            writer.write("endpoints:\n  env.keys-to-sanitize: \"" + String.join(",", KEYS_TO_SANITIZE)
+                    .replace("\\", "\\\\") + "\"\n");
+            writer.write("sample.key: Sample Value\n");
+        }
+        try (BufferedWriter writer = writer(directory, "application-" + PROFILE + ".yml")) {
+            writer.write("deviceDefinitions:\n");
+            for (int type = 0; type < types; type++) {
+                writeType(writer, "TYPE" + type, 1, 0);
+            }
+        }
+        try (BufferedWriter writer = writer(directory, APPLICATION + "-" + PROFILE + ".yml")) {
+            writer.write("someKey: '" + cipher("someValue") + "'\n");
+            writer.write("devices:\n");
+            // Spread over the tree so filtering keeps definitions of several types
+            int assigned = Math.min(assignedDevices, deviceCount);
+            for (int i = 0; i < assigned; i++) {
+                writer.write(" - device" + (long) i * deviceCount / assigned + "\n");
+            }
+        }
+        return deviceCount;
+    }
+
+    private void writeType(BufferedWriter writer, String type, int indent, int level) throws IOException {
+        String padding = indent(indent);
+        writer.write(padding + type + ":\n");
+        writer.write(padding + "  defaults:\n");
+        writer.write(padding + "    connectionTimeout: " + (10000 + level) + "\n");
+        writer.write(padding + "    maxPoolSize: 10\n");
+        if (level < depth) {
+            writer.write(padding + "  subtypes:\n");
+            for (int subtype = 0; subtype < subtypes; subtype++) {
+                writeType(writer, type + "_SUB" + subtype, indent + 2, level + 1);
+            }
+            return;
+        }
+        writer.write(padding + "  devices:\n");
+        for (int i = 0; i < devicesPerSubtype; i++) {
+            int device = deviceCount++;
+            writer.write(padding + "    - id: device" + device + "\n");
+            writer.write(padding + "      url: jdbc:mysql://db" + device + ".example.com:3306\n");
+            for (int property = 0; property < propertiesPerDevice; property++) {
+                // Encrypted values go under sanitized keys, anything else would be withheld instead of decrypted
+                if (random.nextDouble() < cipherDensity) {
+                    writer.write(padding + "      secret" + property + ".password: '"
+                            + cipher("secret-" + device + "-" + property) + "'\n");
+                } else {
+                    writer.write(padding + "      setting" + property + ": value-" + device + "-" + property + "\n");
+                }
+            }
+        }
+    }
+
+    private String cipher(String plaintext) {
+        return "{cipher}{key:" + KEY_ALIAS + "}" + encryptor.encrypt(plaintext);
+    }
+
+    private static String indent(int levels) {
+        char[] spaces = new char[levels * 2];
+        Arrays.fill(spaces, ' ');
+        return new String(spaces);
+    }
+
+    private static BufferedWriter writer(Path directory, String fileName) throws IOException {
+        return Files.newBufferedWriter(directory.resolve(fileName), StandardCharsets.UTF_8);
+    }
+}
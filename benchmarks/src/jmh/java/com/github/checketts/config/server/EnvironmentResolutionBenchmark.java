@@ -0,0 +1,154 @@
+package com.github.checketts.config.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.config.server.config.ConfigServerProperties;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the environment of a service against a generated {@code deviceDefinitions} repository. With
+ * {@code cached} the repository version is known, so the environment, device index, shared layer and plaintext
+ * caches are used as in production between repository changes; without it every call does the full work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnvironmentResolutionBenchmark {
+
+    private static final String VERSION = "bench-version";
+
+    @Param({"10"})
+    public int types;
+    @Param({"3"})
+    public int subtypes;
+    @Param({"1", "3"})
+    public int depth;
+    @Param({"20"})
+    public int devicesPerSubtype;
+    @Param({"0.1", "0.5"})
+    public double cipherDensity;
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private Path directory;
+    private InMemoryEnvironmentRepository repository;
+    private LatestRefreshedRepositoryVersionHolder versionHolder;
+    private DeviceDefinitionIndexCache indexCache;
+    private SanitizeEnforcingEnvironmentEncryptor encryptor;
+    private EnvironmentCacheWarmer cacheWarmer;
+    private FilteringEnvironmentController controller;
+    private Environment filtered;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        TextEncryptor textEncryptor = Encryptors.text(DeviceDefinitionsRepositoryGenerator.KEY,
+                DeviceDefinitionsRepositoryGenerator.SALT);
+        directory = Files.createTempDirectory("benchmark-repo");
+        new DeviceDefinitionsRepositoryGenerator(types, subtypes, depth, devicesPerSubtype, 4, cipherDensity, 10,
+                textEncryptor).generate(directory);
+        repository = new InMemoryEnvironmentRepository(directory, VERSION);
+
+        CacheMetrics cacheMetrics = new CacheMetrics();
+        versionHolder = new LatestRefreshedRepositoryVersionHolder(new NoOpEventPublisher());
+        if (cached) {
+            versionHolder.setLatestRefreshedRepositoryVersion(VERSION);
+        }
+        indexCache = new DeviceDefinitionIndexCache(cacheMetrics);
+        DecryptionProperties decryptionProperties = new DecryptionProperties();
+        if (!cached) {
+            decryptionProperties.setCacheMaxEntries(0);
+        }
+        // The salt of the generated repository is the default encrypt.salt
+        EncryptProperties encryptProperties = new EncryptProperties();
+        encryptProperties.setKeys(Collections.singletonMap(DeviceDefinitionsRepositoryGenerator.KEY_ALIAS,
+                DeviceDefinitionsRepositoryGenerator.KEY));
+        KeyAliasTextEncryptorLocator encryptorLocator = new KeyAliasTextEncryptorLocator(encryptProperties,
+                new StandardEnvironment(), new NoOpEventPublisher());
+        encryptor = new SanitizeEnforcingEnvironmentEncryptor(encryptorLocator,
+                new KeySanitizationUtil(DeviceDefinitionsRepositoryGenerator.KEYS_TO_SANITIZE, cacheMetrics),
+                decryptionProperties, cacheMetrics);
+        cacheWarmer = new EnvironmentCacheWarmer(new CacheWarmingProperties());
+        controller = new FilteringEnvironmentController(repository, encryptor, encryptorLocator,
+                new ConfigServerProperties(), versionHolder, new RepositoryVersionPoller(repository, versionHolder, 5000),
+                new ResolvedEnvironmentCache(new EnvironmentCacheProperties(), cacheMetrics),
+                indexCache, new EnvironmentSnapshotHistory(500, 5, cacheMetrics),
+                new EnvironmentResponseCache(new ObjectMapper(), 64 * 1024 * 1024, cacheMetrics), cacheWarmer,
+                new SharedPropertySources(cacheMetrics),
+                new EnvironmentResolutionMetrics(new ResolutionMetricsProperties()));
+        filtered = removeUnassignedDeviceDefinitions();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encryptor.shutdown();
+        cacheWarmer.shutdown();
+        FileSystemUtils.deleteRecursively(directory.toFile());
+    }
+
+    @Benchmark
+    public Environment labelled() {
+        return controller.labelled(DeviceDefinitionsRepositoryGenerator.APPLICATION,
+                DeviceDefinitionsRepositoryGenerator.PROFILE, null);
+    }
+
+    /**
+     * Includes composing the environment from the repository and indexing its sources, both cheap next to
+     * filtering, as filtering replaces the sources of the environment it is given.
+     */
+    @Benchmark
+    public Environment removeUnassignedDeviceDefinitions() {
+        String version = versionHolder.getLatestRefreshedRepositoryVersion();
+        Environment env = repository.findOne(DeviceDefinitionsRepositoryGenerator.APPLICATION,
+                DeviceDefinitionsRepositoryGenerator.PROFILE, null);
+        List<PropertySource> sources = env.getPropertySources();
+        List<DeviceDefinitionIndex> indexes = new ArrayList<>(sources.size());
+        sources.forEach(source -> indexes.add(indexCache.index(version, null, source)));
+        Set<String> serviceDevices = FilteringEnvironmentController.findAssignedDevices(indexes);
+        List<Collection<String>> keptPrefixes = new ArrayList<>(
+                Collections.<Collection<String>>nCopies(sources.size(), null));
+        controller.removeUnassignedDeviceDefinitions(env, version, null, indexes, serviceDevices, keptPrefixes,
+                new ResolutionTrace(env.getName(), DeviceDefinitionsRepositoryGenerator.PROFILE));
+        return env;
+    }
+
+    @Benchmark
+    public Environment decrypt() {
+        return encryptor.decrypt(filtered);
+    }
+
+    private static class NoOpEventPublisher implements ApplicationEventPublisher {
+        @Override
+        public void publishEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public void publishEvent(Object event) {
+        }
+    }
+}
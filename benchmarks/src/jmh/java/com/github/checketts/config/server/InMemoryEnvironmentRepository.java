@@ -0,0 +1,66 @@
+package com.github.checketts.config.server;
+
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves the YAML files of one directory parsed up front, with the same source order as
+ * {@link WatchingNativeEnvironmentRepository}, so benchmarks measure the controller rather than file IO. Every call
+ * returns new {@link PropertySource}s over the same maps, like the native repository does from its layer cache.
+ */
+public class InMemoryEnvironmentRepository implements EnvironmentRepository {
+
+    private static final String APPLICATION = "application";
+
+    private final Map<String, Map<String, Object>> filesByName = new HashMap<>();
+    private final Path directory;
+    private final String version;
+
+    public InMemoryEnvironmentRepository(Path directory, String version) throws IOException {
+        this.directory = directory;
+        this.version = version;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.yml")) {
+            for (Path file : files) {
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    String fileName = file.getFileName().toString();
+                    filesByName.put(fileName.substring(0, fileName.length() - ".yml".length()),
+                            Collections.unmodifiableMap(StreamingYamlFlattener.flatten(in)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public Environment findOne(String application, String profiles, String label) {
+        String[] profileArray = StringUtils.commaDelimitedListToStringArray(profiles);
+        Environment environment = new Environment(application, profileArray, label, version);
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (int i = profileArray.length - 1; i >= 0; i--) {
+            fileNames.add(application + "-" + profileArray[i]);
+            fileNames.add(APPLICATION + "-" + profileArray[i]);
+        }
+        fileNames.add(application);
+        fileNames.add(APPLICATION);
+        for (String fileName : fileNames) {
+            Map<String, Object> properties = filesByName.get(fileName);
+            if (properties != null) {
+                environment.add(new PropertySource("file:" + directory.resolve(fileName + ".yml"), properties));
+            }
+        }
+        return environment;
+    }
+}
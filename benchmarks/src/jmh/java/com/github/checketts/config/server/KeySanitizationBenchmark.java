@@ -0,0 +1,95 @@
+package com.github.checketts.config.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Compares {@link KeySanitizationUtil} against the previous one-pattern-at-a-time matching over a 50k key
+ * environment. Setup fails if the two disagree on any key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KeySanitizationBenchmark {
+
+    private static final List<String> KEYS_TO_SANITIZE = Arrays.asList("password", "secret", "key", ".*credentials.*",
+            "vcap_services", ".*\\.keys\\..*", ".*\\.secrets.*", "pass", "salt", "token",
+            "deviceDefinitions.*user", "deviceDefinitions.*username");
+    private static final String[] LEAVES = {"id", "url", "username", "password", "driver", "maxPoolSize",
+            "connectionTimeout", "name", "token", "from[0]"};
+    private static final int KEY_COUNT = 50_000;
+
+    private List<String> keys;
+    private List<Pattern> legacyPatterns;
+    private KeySanitizationUtil util;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = generateKeys(KEY_COUNT);
+        legacyPatterns = KEYS_TO_SANITIZE.stream().map(KeySanitizationBenchmark::legacyPattern).collect(toList());
+        util = new KeySanitizationUtil(KEYS_TO_SANITIZE, new CacheMetrics());
+        for (String key : keys) {
+            if (legacy(key) != util.shouldSanitize(key)) {
+                throw new IllegalStateException("Sanitization decision differs for key=" + key);
+            }
+        }
+    }
+
+    @Benchmark
+    public int legacy() {
+        int sanitized = 0;
+        for (String key : keys) {
+            sanitized += legacy(key) ? 1 : 0;
+        }
+        return sanitized;
+    }
+
+    @Benchmark
+    public int combined() {
+        int sanitized = 0;
+        for (String key : keys) {
+            sanitized += util.shouldSanitize(key) ? 1 : 0;
+        }
+        return sanitized;
+    }
+
+    private boolean legacy(String key) {
+        return legacyPatterns.stream().anyMatch(pattern -> pattern.matcher(key).matches());
+    }
+
+    private static List<String> generateKeys(int count) {
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; keys.size() < count; i++) {
+            String leaf = LEAVES[random.nextInt(LEAVES.length)];
+            keys.add(String.format("deviceDefinitions.TYPE%d.subtypes.SUB%d.devices[%d].%s",
+                    i % 50, i % 7, i, leaf));
+            keys.add(String.format("service%d.settings.%s", i, leaf));
+        }
+        return keys;
+    }
+
+    private static Pattern legacyPattern(String value) {
+        for (String part : new String[]{"*", "$", "^", "+"}) {
+            if (value.contains(part)) {
+                return Pattern.compile(value, Pattern.CASE_INSENSITIVE);
+            }
+        }
+        return Pattern.compile(".*" + value + "$", Pattern.CASE_INSENSITIVE);
+    }
+}
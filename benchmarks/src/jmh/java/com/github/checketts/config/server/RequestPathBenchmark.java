@@ -0,0 +1,103 @@
+package com.github.checketts.config.server;
+
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request and per-key helpers of the config server. Parameters only apply to the benchmark whose state declares
+ * them: sanitization runs over {@code keys} distinct keys, the largest size more than its decision cache holds, and
+ * tokens are verified with or without the verified token cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestPathBenchmark {
+
+    private static final String DEVICE_PREFIX =
+            "deviceDefinitions.TYPE0.subtypes.TYPE0_SUB1.subtypes.TYPE0_SUB1_SUB2.devices[7]";
+    private static final List<String> SECRETS = Arrays.asList("tNYH6mjVwXevTnTrqVne3XrmKUF4a4YP",
+            "h5zf4MTg6RP7VB44gupy7fDsTHUGMmEx");
+
+    @State(Scope.Thread)
+    public static class Sanitization {
+        @Param({"1000", "200000"})
+        public int keys;
+
+        private KeySanitizationUtil keySanitizationUtil;
+        private String[] sanitizedKeys;
+        private int nextKey;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            keySanitizationUtil = new KeySanitizationUtil(DeviceDefinitionsRepositoryGenerator.KEYS_TO_SANITIZE,
+                    new CacheMetrics());
+            sanitizedKeys = new String[keys];
+            for (int i = 0; i < keys; i++) {
+                // Half of the keys are sanitized device secrets, the others plain properties
+                sanitizedKeys[i] = i % 2 == 0
+                        ? DEVICE_PREFIX + ".secret" + i + ".password"
+                        : "greeter.from[" + i + "]";
+            }
+        }
+
+        String nextKey() {
+            String key = sanitizedKeys[nextKey];
+            nextKey = nextKey + 1 == sanitizedKeys.length ? 0 : nextKey + 1;
+            return key;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Jwt {
+        @Param({"false", "true"})
+        public boolean cached;
+
+        private JwtUtils jwtUtils;
+        private SignedJWT appServiceJwt;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            jwtUtils = new JwtUtils(SECRETS, cached ? 10_000 : 0, 300, new CacheMetrics());
+            appServiceJwt = jwtUtils.appServiceJwt(DeviceDefinitionsRepositoryGenerator.APPLICATION,
+                    DeviceDefinitionsRepositoryGenerator.PROFILE);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Extractor {
+        private final RegexGroupExtractor regexGroupExtractor = new RegexGroupExtractor();
+    }
+
+    @Benchmark
+    public List<String> getDeviceTypeAndSuperTypes() {
+        return FilteringEnvironmentController.getDeviceTypeAndSuperTypes(DEVICE_PREFIX);
+    }
+
+    @Benchmark
+    public boolean shouldSanitize(Sanitization state) {
+        return state.keySanitizationUtil.shouldSanitize(state.nextKey());
+    }
+
+    @Benchmark
+    public boolean isValidAppServiceJwt(Jwt state) throws ParseException {
+        return state.jwtUtils.isValidAppServiceJwt(state.appServiceJwt);
+    }
+
+    @Benchmark
+    public String extract(Extractor state) {
+        return state.regexGroupExtractor.extract("/config/benchService/bench/master", "/config/([^/]+)/.*", 1,
+                "ROLE_");
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.checketts.config.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.beans.factory.config.YamlProcessor;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link StreamingYamlFlattener} against loading through {@link YamlProcessor} on a generated
+ * {@code deviceDefinitions} file of {@code sizeMb}. Setup fails unless both produce the same properties. Run with
+ * {@code -prof gc} to compare allocation, and with a large enough heap for the bigger sizes, e.g. {@code -Xmx8g}.
+ * <p>
+ * Allocation does not tell how much is held at once, which is what the streaming flattener saves: the document tree
+ * is never built. So every iteration also prints the peak usage of each heap memory pool, starting from a collected
+ * heap. The old generation's peak is the one to compare, as the young pools peak at their size either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YamlLoadingBenchmark {
+
+    private static final int TYPES = 20;
+    private static final int SUBTYPES = 10;
+
+    @Param({"10", "100"})
+    public int sizeMb;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("deviceDefinitions", ".yml");
+        generate(file, sizeMb * 1024L * 1024L);
+        if (!yamlProcessor().equals(streaming())) {
+            throw new IllegalStateException("Loaders produced different properties");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakHeap() {
+        System.gc();
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printPeakHeap() {
+        StringBuilder peaks = new StringBuilder("Peak heap usage (MB):");
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peaks.append(' ').append(pool.getName()).append('=')
+                        .append(pool.getPeakUsage().getUsed() / (1024 * 1024));
+            }
+        }
+        System.out.println(peaks);
+    }
+
+    @Benchmark
+    public Map<String, Object> yamlProcessor() {
+        return new YamlProcessorLoader().load(file);
+    }
+
+    @Benchmark
+    public Map<String, Object> streaming() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return StreamingYamlFlattener.flatten(in);
+        }
+    }
+
+    private static void generate(Path file, long targetBytes) throws IOException {
+        long devicesPerSubtype = Math.max(1, targetBytes / (TYPES * SUBTYPES * 190));
+        int device = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("deviceDefinitions:\n");
+            for (int type = 0; type < TYPES; type++) {
+                writer.write("  TYPE" + type + ":\n");
+                writer.write("    defaults:\n      connectionTimeout: 10000\n      maxPoolSize: 10\n");
+                writer.write("    subtypes:\n");
+                for (int subtype = 0; subtype < SUBTYPES; subtype++) {
+                    writer.write("      SUB" + subtype + ":\n        devices:\n");
+                    for (long i = 0; i < devicesPerSubtype; i++, device++) {
+                        writer.write("          - id: device" + device + "\n");
+                        writer.write("            url: jdbc:mysql://db" + device + ".example.com:3306\n");
+                        writer.write("            username: user" + device + "\n");
+                        writer.write("            password: '{cipher}{key:env_v1}" + Integer.toHexString(device * 31)
+                                + "9f3e4a35ad2892668a2cea21fcf13e'\n");
+                    }
+                }
+            }
+        }
+    }
+
+    private static class YamlProcessorLoader extends YamlProcessor {
+        Map<String, Object> load(Path file) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            setResources(new FileSystemResource(file.toFile()));
+            process((properties, map) -> result.putAll(getFlattenedMap(map)));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes size and hit/miss statistics of the config server's internal caches on the actuator metrics endpoint,
+ * e.g. {@code cache.environment.hit}. Caches bounded by weight also publish their current weight, e.g.
+ * {@code cache.environment.weight}.
+ */
+@Component
+public class CacheMetrics implements PublicMetrics {
+
+    private final Map<String, Cache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    public void register(String name, Cache<?, ?> cache) {
+        caches.put(name, cache);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        caches.forEach((name, cache) -> {
+            String prefix = "cache." + name;
+            CacheStats stats = cache.stats();
+            metrics.add(new Metric<>(prefix + ".size", cache.estimatedSize()));
+            metrics.add(new Metric<>(prefix + ".hit", stats.hitCount()));
+            metrics.add(new Metric<>(prefix + ".miss", stats.missCount()));
+            metrics.add(new Metric<>(prefix + ".hit.ratio", stats.hitRate()));
+            metrics.add(new Metric<>(prefix + ".eviction", stats.evictionCount()));
+            cache.policy().eviction()
+                    .filter(Policy.Eviction::isWeighted)
+                    .ifPresent(eviction -> metrics.add(new Metric<>(prefix + ".weight", eviction.weightedSize().orElse(0))));
+        });
+        return metrics;
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.checketts.config.server;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties("config.server.cache-warming")
+@Component
+public class CacheWarmingProperties {
+    /**
+     * Whether recently requested environments are resolved for a new repository version before it is swapped in.
+     */
+    private boolean enabled = true;
+    /**
+     * Number of threads resolving environments while warming.
+     */
+    private int threads = 4;
+    /**
+     * Maximum number of distinct (name, profiles, label) requests remembered for warming.
+     */
+    private int maxTrackedRequests = 5000;
+    /**
+     * Requests not seen for this long are no longer warmed.
+     */
+    private long trackedRequestTtlMinutes = 60;
+    /**
+     * Longest time a version change waits for warming before the new version is swapped in regardless.
+     */
+    private long timeoutSeconds = 60;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getMaxTrackedRequests() {
+        return maxTrackedRequests;
+    }
+
+    public void setMaxTrackedRequests(int maxTrackedRequests) {
+        this.maxTrackedRequests = maxTrackedRequests;
+    }
+
+    public long getTrackedRequestTtlMinutes() {
+        return trackedRequestTtlMinutes;
+    }
+
+    public void setTrackedRequestTtlMinutes(long trackedRequestTtlMinutes) {
+        this.trackedRequestTtlMinutes = trackedRequestTtlMinutes;
+    }
+
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public void setTimeoutSeconds(long timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+}
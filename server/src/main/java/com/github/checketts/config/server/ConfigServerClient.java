@@ -1,53 +1,121 @@
 package com.github.checketts.config.server;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cloud.bootstrap.config.PropertySourceLocator;
-import org.springframework.cloud.config.client.ConfigClientProperties;
-import org.springframework.cloud.config.server.encryption.EncryptionController;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
 import org.springframework.core.env.CompositePropertySource;
-import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.EnumerablePropertySource;
 import org.springframework.core.env.MapPropertySource;
-import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.stream.Collectors.toList;
 
 /**
  * Encapsulates details of interacting with Spring Cloud Config server endpoints, to avoid dependencies on server classes.
- * Currently simply delegates to Spring Cloud Config server classes because it is embedded,
- * but when it is no longer embedded then this class should be the only bean to change (probably to use RestTemplate).
+ * Property sources are fetched over HTTP from {@code config.server.client.uri} through a pooled connection manager
+ * and revalidated with the ETag of the previous response, so an unchanged environment costs a 304.
+ * Encryption uses the server's {@link KeyAliasTextEncryptorLocator} directly, so no key is derived per call.
  */
 @Component
 public class ConfigServerClient {
 
     public static final String DEVICES_PREFIX = "devices_";
     private static final Logger LOG = LoggerFactory.getLogger(ConfigServerClient.class);
+    private static final String CLIENT_USERNAME = "configServerClient";
 
-    private final EncryptionController encryptionController;
+    private final KeyAliasTextEncryptorLocator textEncryptorLocator;
     private final EncryptProperties encryptProperties;
-
-    private PropertySourceLocator propertySourceLocator;
+    private final JwtUtils jwtUtils;
+    private final String uri;
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService encryptionExecutor;
+    private final Cache<EnvironmentCacheKey, ResponseEntity<Environment>> environments;
 
     @Autowired
-    public ConfigServerClient(EncryptionController encryptionController,
-//                              ConfigServicePropertySourceLocator propertySourceLocator,
-                              EncryptProperties encryptProperties) {
-        this.encryptionController = encryptionController;
-        this.propertySourceLocator = propertySourceLocator;
+    public ConfigServerClient(KeyAliasTextEncryptorLocator textEncryptorLocator,
+                              EncryptProperties encryptProperties,
+                              JwtUtils jwtUtils,
+                              ConfigServerClientProperties properties,
+                              CacheMetrics cacheMetrics) {
+        this.textEncryptorLocator = textEncryptorLocator;
         this.encryptProperties = encryptProperties;
+        this.jwtUtils = jwtUtils;
+        this.uri = properties.getUri();
+        this.httpClient = HttpClients.custom()
+                .setMaxConnTotal(properties.getMaxConnections())
+                .setMaxConnPerRoute(properties.getMaxConnections())
+                .build();
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(properties.getConnectTimeoutMillis());
+        requestFactory.setReadTimeout(properties.getReadTimeoutMillis());
+        this.restTemplate = new RestTemplate(requestFactory);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-client-");
+        threadFactory.setDaemon(true);
+        this.fetchExecutor = Executors.newFixedThreadPool(properties.getMaxConnections(), threadFactory);
+        CustomizableThreadFactory encryptionThreadFactory = new CustomizableThreadFactory("config-encrypt-");
+        encryptionThreadFactory.setDaemon(true);
+        this.encryptionExecutor = Executors.newFixedThreadPool(properties.getEncryptionThreads(),
+                encryptionThreadFactory);
+        this.environments = Caffeine.newBuilder()
+                .maximumSize(properties.getCacheMaxEntries())
+                .recordStats()
+                .build();
+        cacheMetrics.register("configServerClient", environments);
     }
 
+    @PreDestroy
+    public void shutdown() throws IOException {
+        fetchExecutor.shutdownNow();
+        encryptionExecutor.shutdownNow();
+        httpClient.close();
+    }
+
+    /**
+     * Encrypts the value with the key named by its optional {@code {key:alias}} prefix, keeping the prefix on the
+     * result as the encryption endpoint does.
+     */
     public String encrypt(String toEncrypt) {
-        return encryptionController.encrypt(toEncrypt, MediaType.TEXT_PLAIN);
+        EncryptorKeyPrefix prefix = EncryptorKeyPrefix.parse("application", "default", toEncrypt);
+        String keyAlias = prefix.getKeys().get(KeyAliasTextEncryptorLocator.KEY_ALIAS);
+        String encrypted = textEncryptorLocator.locate(prefix.getKeys()).encrypt(prefix.getCipherText());
+        return keyAlias == null ? encrypted : String.format("{key:%s}%s", keyAlias, encrypted);
     }
 
     public String decrypt(String toDecrypt) {
-        return encryptionController.decrypt(toDecrypt, MediaType.TEXT_PLAIN);
+        EncryptorKeyPrefix prefix = EncryptorKeyPrefix.parse("application", "default", toDecrypt);
+        return textEncryptorLocator.locate(prefix.getKeys()).decrypt(prefix.getCipherText());
     }
 
     /**
@@ -65,46 +133,117 @@ public class ConfigServerClient {
     }
 
     public EnumerablePropertySource<?> getPropertySource(String applicationName, String environmentId, String branch) {
-        EnumerablePropertySource<?> result = newPropertySource(applicationName, environmentId, branch);
-        if ("application".equals(applicationName)) {
-            String profile = DEVICES_PREFIX + environmentId;
-            EnumerablePropertySource<?> deviceSource = newPropertySource(applicationName, profile, branch);
-            CompositePropertySource deviceSourceWithUniqueName = new CompositePropertySource("devicesSource");
-            deviceSourceWithUniqueName.addPropertySource(deviceSource);
-
-            CompositePropertySource composite = new CompositePropertySource("envPlusDevices");
-            composite.addPropertySource(result);
-            composite.addPropertySource(deviceSourceWithUniqueName);
-            result = composite;
+        CompletableFuture<EnumerablePropertySource<?>> source = newPropertySource(applicationName, environmentId, branch);
+        if (!"application".equals(applicationName)) {
+            return join(source);
         }
-        return result;
-    }
+        // Both profiles are fetched concurrently
+        CompletableFuture<EnumerablePropertySource<?>> devices = newPropertySource(applicationName,
+                DEVICES_PREFIX + environmentId, branch);
+        CompositePropertySource deviceSourceWithUniqueName = new CompositePropertySource("devicesSource");
+        deviceSourceWithUniqueName.addPropertySource(join(devices));
 
-    private EnumerablePropertySource<?> newPropertySource(String applicationName, String environmentId, String branch) {
-        throw new UnsupportedOperationException("Property source Locator is not wired up properly, check constructor");
-//        ConfigurableEnvironment environment = newEnvironment(applicationName, environmentId, branch);
-//
-//        PropertySource<?> source = propertySourceLocator.locate(environment);
-//        LOG.info("getPropertySource(). env={}, source={}", environment, source);
-//        if (null == source) {
-//            source = new MapPropertySource("emptyPropertySource", Collections.emptyMap());
-//        }
-//        return (EnumerablePropertySource<?>)source;
+        CompositePropertySource composite = new CompositePropertySource("envPlusDevices");
+        composite.addPropertySource(join(source));
+        composite.addPropertySource(deviceSourceWithUniqueName);
+        return composite;
     }
 
-    private ConfigurableEnvironment newEnvironment(String applicationName, String environmentId, String branch) {
-        HashMap<String, Object> map = new HashMap<>();
-        map.put(ConfigClientProperties.PREFIX + ".name", applicationName);
-        map.put(ConfigClientProperties.PREFIX + ".profile", environmentId);
-        map.put(ConfigClientProperties.PREFIX + ".label", branch);
+    private CompletableFuture<EnumerablePropertySource<?>> newPropertySource(String applicationName,
+                                                                             String environmentId, String branch) {
+        return CompletableFuture.supplyAsync(() -> {
+            Environment environment = fetch(new EnvironmentCacheKey(applicationName, environmentId, branch, null));
+            LOG.info("getPropertySource(). app={}, env={}, branch={}, version={}", applicationName, environmentId,
+                    branch, environment.getVersion());
+            // Same shape as ConfigServicePropertySourceLocator builds for a client
+            CompositePropertySource composite = new CompositePropertySource("configService");
+            for (PropertySource source : environment.getPropertySources()) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) source.getSource();
+                composite.addPropertySource(new MapPropertySource(source.getName(), map));
+            }
+            return composite;
+        }, fetchExecutor);
+    }
 
-        ConfigurableEnvironment environment = new StandardEnvironment();
-        environment.getPropertySources().addFirst(new MapPropertySource("profiles", map));
-        return environment;
+    /**
+     * Fetches the environment, sending the ETag of the last response for the same coordinates so an environment
+     * whose repository version did not change is not transferred again.
+     */
+    private Environment fetch(EnvironmentCacheKey key) {
+        ResponseEntity<Environment> cached = environments.getIfPresent(key);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwtUtils.adminJwt(CLIENT_USERNAME).serialize());
+        if (cached != null && cached.getHeaders().getETag() != null) {
+            headers.setIfNoneMatch(cached.getHeaders().getETag());
+        }
+        ResponseEntity<Environment> response = restTemplate.exchange(uri + "/{name}/{profiles}/{label}",
+                HttpMethod.GET, new HttpEntity<>(headers), Environment.class,
+                key.getName(), key.getProfiles(), key.getLabel());
+        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && cached != null) {
+            return cached.getBody();
+        }
+        environments.put(key, response);
+        return response.getBody();
+    }
 
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
     }
 
     public String toEncryptedValue(String value, Optional<String> environmentId, Optional<String> serviceOrDeviceId) {
+        String keyAlias = resolveKeyAlias(environmentId, serviceOrDeviceId);
+        return "'" + toEncryptedValue(Optional.of(keyAlias), value) + "'";
+    }
+
+    /**
+     * Bulk variant of {@link #toEncryptedValue(String, Optional, Optional)}.
+     *
+     * @return the encrypted values in the order of the requests
+     */
+    public List<String> toEncryptedValues(List<EncryptionRequest> requests) {
+        return encryptAll(requests).stream().map(ConfigServerClient::join).collect(toList());
+    }
+
+    /**
+     * Resolves each distinct key alias once, failing if a key is missing before anything is encrypted, and then
+     * encrypts the values on a bounded pool.
+     *
+     * @return the encryption of each value, in the order of the requests
+     */
+    public List<CompletableFuture<String>> encryptAll(List<EncryptionRequest> requests) {
+        Map<Map.Entry<Optional<String>, Optional<String>>, String> keyAliases = new HashMap<>();
+        Map<String, TextEncryptor> encryptors = new HashMap<>();
+        List<String> requestKeyAliases = new ArrayList<>(requests.size());
+        for (EncryptionRequest request : requests) {
+            String keyAlias = keyAliases.computeIfAbsent(
+                    new SimpleImmutableEntry<>(request.getEnvironmentId(), request.getServiceOrDeviceId()),
+                    target -> resolveKeyAlias(target.getKey(), target.getValue()));
+            encryptors.computeIfAbsent(keyAlias, textEncryptorLocator::forAlias);
+            requestKeyAliases.add(keyAlias);
+        }
+
+        List<CompletableFuture<String>> encrypted = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String keyAlias = requestKeyAliases.get(i);
+            TextEncryptor encryptor = encryptors.get(keyAlias);
+            String value = requests.get(i).getValue();
+            encrypted.add(CompletableFuture.supplyAsync(
+                    () -> String.format("'{cipher}{key:%s}%s'", keyAlias, encryptor.encrypt(value)),
+                    encryptionExecutor));
+        }
+        return encrypted;
+    }
+
+    private String resolveKeyAlias(Optional<String> environmentId, Optional<String> serviceOrDeviceId) {
         String keyAlias = toKeyAlias(environmentId, serviceOrDeviceId);
         if (!encryptProperties.getKeys().containsKey(keyAlias)) {
             keyAlias = toKeyAlias(environmentId, Optional.empty());
@@ -112,7 +251,7 @@ public class ConfigServerClient {
                 throw new IllegalStateException("Encryption key not found for environment=" + environmentId + ", svc/dvc=" + serviceOrDeviceId);
             }
         }
-        return "'" + toEncryptedValue(Optional.of(keyAlias), value) + "'";
+        return keyAlias;
     }
 
     public String toEncryptedValue(Optional<String> keyAlias, String value) {
@@ -0,0 +1,75 @@
+package com.github.checketts.config.server;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties("config.server.client")
+@Component
+public class ConfigServerClientProperties {
+    /**
+     * Base URI of the filtering environment endpoints, i.e. {@code /config} of the config server.
+     */
+    private String uri = "http://localhost:8080/config";
+    /**
+     * Maximum number of pooled connections to the config server.
+     */
+    private int maxConnections = 20;
+    private int connectTimeoutMillis = 2000;
+    private int readTimeoutMillis = 10_000;
+    /**
+     * Maximum number of environments kept for revalidation with {@code If-None-Match}.
+     */
+    private int cacheMaxEntries = 1000;
+    /**
+     * Number of threads encrypting the values of batch requests.
+     */
+    private int encryptionThreads = Runtime.getRuntime().availableProcessors();
+
+    public String getUri() {
+        return uri;
+    }
+
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public int getEncryptionThreads() {
+        return encryptionThreads;
+    }
+
+    public void setEncryptionThreads(int encryptionThreads) {
+        this.encryptionThreads = encryptionThreads;
+    }
+}
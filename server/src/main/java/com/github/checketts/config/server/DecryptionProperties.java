@@ -0,0 +1,57 @@
+package com.github.checketts.config.server;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties("config.server.decryption")
+@Component
+public class DecryptionProperties {
+    /**
+     * Worker threads decrypting the ciphertexts of an environment in parallel.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Decryptions queued for the workers before request threads decrypt on their own.
+     */
+    private int queueCapacity = 1000;
+    /**
+     * Maximum number of plaintexts cached by ciphertext and key alias.
+     */
+    private int cacheMaxEntries = 10_000;
+    /**
+     * How long a cached plaintext is kept after it was decrypted.
+     */
+    private long cacheTtlSeconds = 300;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public long getCacheTtlSeconds() {
+        return cacheTtlSeconds;
+    }
+
+    public void setCacheTtlSeconds(long cacheTtlSeconds) {
+        this.cacheTtlSeconds = cacheTtlSeconds;
+    }
+}
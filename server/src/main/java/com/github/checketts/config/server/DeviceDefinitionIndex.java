@@ -0,0 +1,139 @@
+package com.github.checketts.config.server;
+
+import org.springframework.cloud.config.environment.PropertySource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable index over a single {@link PropertySource}. {@code deviceDefinitions*} keys are held in a prefix tree
+ * keyed by property path segments (e.g. {@code deviceDefinitions}, {@code MYSQL}, {@code devices[0]}), so the
+ * properties of a device or of a type's defaults can be projected in time proportional to the number of
+ * properties returned rather than the number of devices defined.
+ */
+public class DeviceDefinitionIndex {
+
+    static final String DEVICE_DEFINITIONS = "deviceDefinitions";
+    static final String ASSIGNED_DEVICES_PREFIX = "devices[";
+    private static final String ID_SUFFIX = ".id";
+
+    private final String sourceName;
+    private final Map<Object, Object> otherProperties;
+    private final Node root = new Node();
+    private final Map<String, List<String>> devicePrefixesById;
+    private final List<String> assignedDeviceIds;
+    private final int deviceDefinitionCount;
+
+    public DeviceDefinitionIndex(PropertySource source) {
+        Map<Object, Object> other = new LinkedHashMap<>();
+        Map<String, List<String>> prefixesById = new HashMap<>();
+        List<String> assigned = new ArrayList<>();
+        int definitionCount = 0;
+
+        for (Map.Entry<?, ?> entry : source.getSource().entrySet()) {
+            String key = (String) entry.getKey();
+            if (key.startsWith(DEVICE_DEFINITIONS)) {
+                definitionCount++;
+                insert(key, entry.getValue());
+                if (key.endsWith(ID_SUFFIX)) {
+                    prefixesById.computeIfAbsent(String.valueOf(entry.getValue()), id -> new ArrayList<>(1))
+                            .add(key.substring(0, key.length() - ID_SUFFIX.length()));
+                }
+            } else {
+                other.put(key, entry.getValue());
+                if (key.startsWith(ASSIGNED_DEVICES_PREFIX)) {
+                    assigned.add((String) entry.getValue());
+                }
+            }
+        }
+        this.sourceName = source.getName();
+        this.otherProperties = Collections.unmodifiableMap(other);
+        this.devicePrefixesById = prefixesById;
+        this.assignedDeviceIds = Collections.unmodifiableList(assigned);
+        this.deviceDefinitionCount = definitionCount;
+    }
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    /**
+     * @return the properties of the source that are not device definitions, in their original order
+     */
+    public Map<Object, Object> getOtherProperties() {
+        return otherProperties;
+    }
+
+    /**
+     * @return the device ids listed under {@code devices[]}, i.e. the devices assigned to the service
+     */
+    public List<String> getAssignedDeviceIds() {
+        return assignedDeviceIds;
+    }
+
+    public boolean hasDeviceDefinitions() {
+        return deviceDefinitionCount > 0;
+    }
+
+    public int getDeviceDefinitionCount() {
+        return deviceDefinitionCount;
+    }
+
+    /**
+     * @return the property prefixes (e.g. {@code deviceDefinitions.CACHE.devices[0]}) of devices with the given id
+     */
+    public List<String> getDevicePrefixes(String deviceId) {
+        return devicePrefixesById.getOrDefault(deviceId, Collections.emptyList());
+    }
+
+    public Iterable<String> getDeviceIds() {
+        return devicePrefixesById.keySet();
+    }
+
+    /**
+     * Passes every property whose key is {@code prefix} or lies below it to the consumer.
+     */
+    public void collect(String prefix, BiConsumer<String, Object> consumer) {
+        Node node = root;
+        for (String segment : segments(prefix)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return;
+            }
+        }
+        node.collect(consumer);
+    }
+
+    private void insert(String key, Object value) {
+        Node node = root;
+        for (String segment : segments(key)) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+        }
+        node.key = key;
+        node.value = value;
+    }
+
+    private static String[] segments(String key) {
+        return key.split("\\.");
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new LinkedHashMap<>(4);
+        String key;
+        Object value;
+
+        void collect(BiConsumer<String, Object> consumer) {
+            if (key != null) {
+                consumer.accept(key, value);
+            }
+            for (Node child : children.values()) {
+                child.collect(consumer);
+            }
+        }
+    }
+}
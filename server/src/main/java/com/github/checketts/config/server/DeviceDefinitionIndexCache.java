@@ -0,0 +1,68 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Builds each property source's {@link DeviceDefinitionIndex}, and the {@link DeviceTypeHierarchy} of each
+ * combination of property sources, once per repository version. Within a version and label a property source name
+ * (the file it was loaded from) always denotes the same content, so indexes are shared by every application and
+ * profile combining that file.
+ */
+@Component
+public class DeviceDefinitionIndexCache {
+
+    private final Cache<List<Object>, DeviceDefinitionIndex> cache;
+    private final Cache<List<Object>, DeviceTypeHierarchy> hierarchyCache;
+
+    @Autowired
+    public DeviceDefinitionIndexCache(CacheMetrics cacheMetrics) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .recordStats()
+                .build();
+        cacheMetrics.register("deviceDefinitionIndex", cache);
+        this.hierarchyCache = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .recordStats()
+                .build();
+        cacheMetrics.register("deviceTypeHierarchy", hierarchyCache);
+    }
+
+    /**
+     * @param version repository version the source was loaded from, which may not be the latest one yet
+     * @param label   label the source was loaded for, as the same file may differ between labels
+     */
+    public DeviceDefinitionIndex index(String version, String label, PropertySource source) {
+        if (LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(version)) {
+            return new DeviceDefinitionIndex(source);
+        }
+        return cache.get(Arrays.asList(version, label, source.getName()), key -> new DeviceDefinitionIndex(source));
+    }
+
+    /**
+     * @param indexes indexes of the property sources of an environment, highest precedence first
+     */
+    public DeviceTypeHierarchy hierarchy(String version, String label, List<DeviceDefinitionIndex> indexes) {
+        if (LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(version)) {
+            return new DeviceTypeHierarchy(indexes);
+        }
+        List<String> sourceNames = indexes.stream().map(DeviceDefinitionIndex::getSourceName).collect(toList());
+        return hierarchyCache.get(Arrays.asList(version, label, sourceNames), key -> new DeviceTypeHierarchy(indexes));
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanged(RepositoryVersionChangedEvent event) {
+        cache.asMap().keySet().removeIf(key -> !event.getVersion().equals(key.get(0)));
+        hierarchyCache.asMap().keySet().removeIf(key -> !event.getVersion().equals(key.get(0)));
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.checketts.config.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the {@code deviceDefinitions} &rarr; {@code subtypes} &rarr; {@code devices} tree (the shape
+ * modelled by {@link DeviceConfig.DevicesWithDefaults}) of a set of property sources. It is bound once per
+ * repository version, after which the prefixes each device requires are plain lookups.
+ */
+public class DeviceTypeHierarchy {
+
+    private static final String DEVICES_SEGMENT = ".devices[";
+    private static final String SUBTYPES_SEGMENT = ".subtypes.";
+    private static final String DEFAULTS_SUFFIX = ".defaults";
+
+    private final Map<String, Collection<Device>> devicesById;
+
+    /**
+     * @param indexes indexes of the property sources, highest precedence first
+     */
+    public DeviceTypeHierarchy(List<DeviceDefinitionIndex> indexes) {
+        // By id and prefix, as the same definition is often spread over several sources, e.g. application.yml and
+        // application-{profile}.yml
+        Map<String, Map<String, Device>> byId = new HashMap<>();
+        for (DeviceDefinitionIndex index : indexes) {
+            for (String deviceId : index.getDeviceIds()) {
+                for (String prefix : index.getDevicePrefixes(deviceId)) {
+                    List<String> typeChain = typeChain(prefix);
+                    if (!typeChain.isEmpty()) {
+                        byId.computeIfAbsent(deviceId, id -> new LinkedHashMap<>(2))
+                                .computeIfAbsent(prefix, p -> new Device(deviceId, prefix, typeChain));
+                    }
+                }
+            }
+        }
+        Map<String, Collection<Device>> devices = new HashMap<>(byId.size());
+        byId.forEach((deviceId, byPrefix) -> devices.put(deviceId, Collections.unmodifiableCollection(byPrefix.values())));
+        this.devicesById = devices;
+    }
+
+    /**
+     * @return every definition of the device, there is usually only one
+     */
+    public Collection<Device> getDevices(String deviceId) {
+        return devicesById.getOrDefault(deviceId, Collections.emptyList());
+    }
+
+    public Iterable<String> getDeviceIds() {
+        return devicesById.keySet();
+    }
+
+    /**
+     * Parses a device prefix such as {@code deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[0]} into its type
+     * followed by all of its super types, e.g. {@code deviceDefinitions.MYSQL.subtypes.USERS_DB} and
+     * {@code deviceDefinitions.MYSQL}.
+     *
+     * @return the type chain, most specific first, or an empty list if the prefix does not denote a device
+     */
+    public static List<String> typeChain(String devicePrefix) {
+        int devicesStart = devicePrefix.lastIndexOf(DEVICES_SEGMENT);
+        if (devicesStart < 0 || !devicePrefix.endsWith("]")
+                || !devicePrefix.startsWith(DeviceDefinitionIndex.DEVICE_DEFINITIONS + ".")) {
+            return Collections.emptyList();
+        }
+        List<String> chain = new ArrayList<>(4);
+        String type = devicePrefix.substring(0, devicesStart);
+        chain.add(type);
+        int subtypesStart;
+        while ((subtypesStart = type.lastIndexOf(SUBTYPES_SEGMENT)) > 0) {
+            type = type.substring(0, subtypesStart);
+            chain.add(type);
+        }
+        return Collections.unmodifiableList(chain);
+    }
+
+    public static class Device {
+        private final String id;
+        private final List<String> requiredPrefixes;
+
+        Device(String id, String prefix, List<String> typeChain) {
+            this.id = id;
+            List<String> required = new ArrayList<>(typeChain.size() + 1);
+            required.add(prefix);
+            typeChain.forEach(type -> required.add(type + DEFAULTS_SUFFIX));
+            this.requiredPrefixes = Collections.unmodifiableList(required);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the property prefixes a service assigned to this device must receive
+         */
+        public List<String> getRequiredPrefixes() {
+            return requiredPrefixes;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.checketts.config.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Encrypts many values in one round trip, e.g. when rotating the secrets of a {@code deviceDefinitions} file.
+ * Responses are streamed: each value is written once it and the values before it are encrypted.
+ */
+@RestController
+@RequestMapping(method = RequestMethod.POST, value = "/encrypt/batch")
+public class EncryptionBatchController {
+
+    public static final String YAML_MEDIA_TYPE = "application/x-yaml";
+
+    private final ConfigServerClient configServerClient;
+    private final KeySanitizationUtil keySanitizationUtil;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public EncryptionBatchController(ConfigServerClient configServerClient,
+                                     KeySanitizationUtil keySanitizationUtil,
+                                     ObjectMapper objectMapper) {
+        this.configServerClient = configServerClient;
+        this.keySanitizationUtil = keySanitizationUtil;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return a JSON array of the encrypted values, in the order of the requests
+     */
+    @RequestMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody encrypt(@RequestBody List<EncryptionRequest> requests) {
+        List<CompletableFuture<String>> encrypted = configServerClient.encryptAll(requests);
+        return out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                for (int i = 0; i < encrypted.size(); i++) {
+                    generator.writeString(encrypted.get(i).join());
+                    if (isPending(encrypted, i + 1)) {
+                        generator.flush();
+                    }
+                }
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    /**
+     * Encrypts every plain value of a YAML document whose key is registered for sanitization. Values of a device
+     * under {@code deviceDefinitions} use that device's key, falling back to the environment key.
+     *
+     * @return the encrypted properties as flattened YAML, one {@code key: '{cipher}...'} per line
+     */
+    @RequestMapping(consumes = {YAML_MEDIA_TYPE, "text/yaml"}, produces = YAML_MEDIA_TYPE)
+    public StreamingResponseBody encryptYaml(@RequestBody byte[] document,
+                                             @RequestParam String environmentId,
+                                             @RequestParam(required = false) String serviceId) {
+        Map<String, Object> properties = StreamingYamlFlattener.flatten(new ByteArrayInputStream(document));
+        List<String> keys = new ArrayList<>();
+        List<EncryptionRequest> requests = new ArrayList<>();
+        properties.forEach((key, value) -> {
+            String text = String.valueOf(value);
+            if (value != null && !text.startsWith("{cipher}") && keySanitizationUtil.shouldSanitize(key)) {
+                keys.add(key);
+                requests.add(new EncryptionRequest(text, environmentId, deviceId(key, properties).orElse(serviceId)));
+            }
+        });
+
+        List<CompletableFuture<String>> encrypted = configServerClient.encryptAll(requests);
+        return out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (int i = 0; i < keys.size(); i++) {
+                writer.write(keys.get(i));
+                writer.write(": ");
+                writer.write(encrypted.get(i).join());
+                writer.write('\n');
+                if (isPending(encrypted, i + 1)) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        };
+    }
+
+    /**
+     * Whether writing has to wait for the next value, in which case what was written so far is sent meanwhile.
+     */
+    private static boolean isPending(List<CompletableFuture<String>> encrypted, int next) {
+        return next < encrypted.size() && !encrypted.get(next).isDone();
+    }
+
+    private static Optional<String> deviceId(String key, Map<String, Object> properties) {
+        if (!key.startsWith(DeviceDefinitionIndex.DEVICE_DEFINITIONS)) {
+            return Optional.empty();
+        }
+        int devicesStart = key.lastIndexOf(".devices[");
+        int devicesEnd = devicesStart < 0 ? -1 : key.indexOf(']', devicesStart);
+        if (devicesEnd < 0) {
+            return Optional.empty();
+        }
+        Object id = properties.get(key.substring(0, devicesEnd + 1) + ".id");
+        return Optional.ofNullable(id).map(String::valueOf);
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.checketts.config.server;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by {@link KeyAliasTextEncryptorLocator} once encryptors built from changed keys are in use. Values
+ * decrypted before, and everything derived from them, may no longer match what the keys now decrypt to.
+ */
+public class EncryptionKeysChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long generation;
+
+    public EncryptionKeysChangedEvent(Object source, long generation) {
+        super(source);
+        this.generation = generation;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.checketts.config.server;
+
+import java.util.Optional;
+
+/**
+ * A value to encrypt with the key of an environment, or of a service or device within it.
+ */
+public class EncryptionRequest {
+
+    private String value;
+    private String environmentId;
+    private String serviceOrDeviceId;
+
+    public EncryptionRequest() {
+    }
+
+    public EncryptionRequest(String value, String environmentId, String serviceOrDeviceId) {
+        this.value = value;
+        this.environmentId = environmentId;
+        this.serviceOrDeviceId = serviceOrDeviceId;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public Optional<String> getEnvironmentId() {
+        return Optional.ofNullable(environmentId);
+    }
+
+    public void setEnvironmentId(String environmentId) {
+        this.environmentId = environmentId;
+    }
+
+    public Optional<String> getServiceOrDeviceId() {
+        return Optional.ofNullable(serviceOrDeviceId);
+    }
+
+    public void setServiceOrDeviceId(String serviceOrDeviceId) {
+        this.serviceOrDeviceId = serviceOrDeviceId;
+    }
+}
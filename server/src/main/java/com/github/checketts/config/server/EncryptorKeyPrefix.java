@@ -0,0 +1,62 @@
+package com.github.checketts.config.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses the {@code {key:alias}{secret:name}...} prefix of an encrypted value (without {@code {cipher}}) the way
+ * Spring Cloud Config does, whose own parser is not public. A {@code {plain}} group ends the prefix.
+ */
+final class EncryptorKeyPrefix {
+
+    static final String NAME = "name";
+    static final String PROFILES = "profiles";
+    private static final String PLAIN = "plain";
+
+    private final Map<String, String> keys;
+    private final String cipherText;
+
+    private EncryptorKeyPrefix(Map<String, String> keys, String cipherText) {
+        this.keys = keys;
+        this.cipherText = cipherText;
+    }
+
+    /**
+     * @param name     application name, available to the encryptor locator as {@code name} unless overridden
+     * @param profiles comma separated profiles, available as {@code profiles} unless overridden
+     */
+    static EncryptorKeyPrefix parse(String name, String profiles, String value) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        keys.put(NAME, name);
+        keys.put(PROFILES, profiles);
+        int start = 0;
+        while (value.startsWith("{", start)) {
+            int end = value.indexOf('}', start);
+            if (end < 0) {
+                break;
+            }
+            String group = value.substring(start + 1, end);
+            int colon = group.indexOf(':');
+            if (colon < 0) {
+                if (PLAIN.equals(group)) {
+                    start = end + 1;
+                }
+                break;
+            }
+            keys.put(group.substring(0, colon), group.substring(colon + 1));
+            start = end + 1;
+        }
+        return new EncryptorKeyPrefix(keys, value.substring(start));
+    }
+
+    Map<String, String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the value without its prefix
+     */
+    String getCipherText() {
+        return cipherText;
+    }
+}
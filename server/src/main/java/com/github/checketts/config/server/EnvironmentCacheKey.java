@@ -0,0 +1,78 @@
+package com.github.checketts.config.server;
+
+import java.util.Objects;
+
+/**
+ * Coordinates of a resolved {@link org.springframework.cloud.config.environment.Environment}, pinned to the
+ * repository version it was resolved from and the generation of the encryption keys it was decrypted with.
+ */
+public final class EnvironmentCacheKey {
+
+    private final String name;
+    private final String profiles;
+    private final String label;
+    private final String version;
+    private final long keysGeneration;
+
+    public EnvironmentCacheKey(String name, String profiles, String label, String version) {
+        this(name, profiles, label, version, 0);
+    }
+
+    /**
+     * @param keysGeneration see {@link KeyAliasTextEncryptorLocator#getGeneration()}
+     */
+    public EnvironmentCacheKey(String name, String profiles, String label, String version, long keysGeneration) {
+        this.name = name;
+        this.profiles = profiles;
+        this.label = label;
+        this.version = version;
+        this.keysGeneration = keysGeneration;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProfiles() {
+        return profiles;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getKeysGeneration() {
+        return keysGeneration;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        EnvironmentCacheKey that = (EnvironmentCacheKey) o;
+        return Objects.equals(name, that.name) &&
+                Objects.equals(profiles, that.profiles) &&
+                Objects.equals(label, that.label) &&
+                Objects.equals(version, that.version) &&
+                keysGeneration == that.keysGeneration;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, profiles, label, version, keysGeneration);
+    }
+
+    @Override
+    public String toString() {
+        return "EnvironmentCacheKey{name=" + name + ", profiles=" + profiles + ", label=" + label +
+                ", version=" + version + ", keysGeneration=" + keysGeneration + "}";
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.checketts.config.server;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties("config.server.environment-cache")
+@Component
+public class EnvironmentCacheProperties {
+    /**
+     * Whether fully resolved environments are cached per repository version.
+     */
+    private boolean enabled = true;
+    /**
+     * Maximum number of cached environments.
+     */
+    private int maxEntries = 1000;
+    /**
+     * Approximate upper bound of heap used by cached environments.
+     */
+    private long maxWeightBytes = 256L * 1024 * 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxWeightBytes() {
+        return maxWeightBytes;
+    }
+
+    public void setMaxWeightBytes(long maxWeightBytes) {
+        this.maxWeightBytes = maxWeightBytes;
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Remembers which environments were requested recently and resolves all of them for a new repository version before
+ * it is swapped in, so the first poll of each service after a change is not a cold resolve. Progress of the last
+ * warm-up is published as {@code environment.warming.*} metrics.
+ */
+@Component
+public class EnvironmentCacheWarmer implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EnvironmentCacheWarmer.class);
+
+    private final CacheWarmingProperties properties;
+    // Keys without a version: the same request is warmed for whichever version comes next
+    private final Cache<EnvironmentCacheKey, Boolean> recentRequests;
+    private final ExecutorService warmingExecutor;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong lastDurationMillis = new AtomicLong();
+
+    @Autowired
+    public EnvironmentCacheWarmer(CacheWarmingProperties properties) {
+        this.properties = properties;
+        this.recentRequests = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxTrackedRequests())
+                .expireAfterAccess(properties.getTrackedRequestTtlMinutes(), TimeUnit.MINUTES)
+                .build();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-warm-");
+        threadFactory.setDaemon(true);
+        this.warmingExecutor = Executors.newFixedThreadPool(properties.getThreads(), threadFactory);
+    }
+
+    public void track(String name, String profiles, String label) {
+        if (properties.isEnabled()) {
+            recentRequests.put(new EnvironmentCacheKey(name, profiles, label, null), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Resolves every recently requested environment at {@code version} and waits until all of them are done or the
+     * warming timeout passed.
+     *
+     * @param resolver resolves (and caches) the environment of a key
+     */
+    public void warm(String version, Consumer<EnvironmentCacheKey> resolver) {
+        if (!properties.isEnabled() || LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(version)) {
+            return;
+        }
+        List<EnvironmentCacheKey> keys = recentRequests.asMap().keySet().stream()
+                .map(key -> new EnvironmentCacheKey(key.getName(), key.getProfiles(), key.getLabel(), version))
+                .collect(toList());
+        total.set(keys.size());
+        completed.set(0);
+        failed.set(0);
+        LOG.info("Warming environments for new repository version. version={}, environments={}", version, keys.size());
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] warmups = keys.stream()
+                .map(key -> CompletableFuture.runAsync(() -> resolver.accept(key), warmingExecutor)
+                        .whenComplete((result, e) -> {
+                            if (e == null) {
+                                completed.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                                LOG.warn("Cannot warm environment. key={}", key, e);
+                            }
+                        }))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(warmups).get(properties.getTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // Already counted and logged per environment
+        } catch (TimeoutException e) {
+            LOG.warn("Warming did not finish in time, swapping in version anyway. version={}, completed={}, total={}",
+                    version, completed.get(), keys.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lastDurationMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        LOG.info("Warmed environments. version={}, completed={}, failed={}, durationMillis={}",
+                version, completed.get(), failed.get(), lastDurationMillis.get());
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("environment.warming.tracked", recentRequests.estimatedSize()),
+                new Metric<>("environment.warming.total", total.get()),
+                new Metric<>("environment.warming.completed", completed.get()),
+                new Metric<>("environment.warming.failed", failed.get()),
+                new Metric<>("environment.warming.duration", lastDurationMillis.get()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        warmingExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.checketts.config.server;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.cloud.config.environment.Environment;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The properties added, changed and removed between two repository versions of an environment. When the older
+ * version is no longer known, {@link #isFull()} is set and the whole {@link #getEnvironment()} is returned instead.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EnvironmentDelta {
+
+    private final String name;
+    private final String profiles;
+    private final String label;
+    private final String fromVersion;
+    private final String version;
+    private final Map<String, Object> added;
+    private final Map<String, Object> changed;
+    private final List<String> removed;
+    private final Environment environment;
+
+    private EnvironmentDelta(EnvironmentCacheKey key, String fromVersion, Map<String, Object> added,
+                             Map<String, Object> changed, List<String> removed, Environment environment) {
+        this.name = key.getName();
+        this.profiles = key.getProfiles();
+        this.label = key.getLabel();
+        this.fromVersion = fromVersion;
+        this.version = key.getVersion();
+        this.added = added;
+        this.changed = changed;
+        this.removed = removed;
+        this.environment = environment;
+    }
+
+    public static EnvironmentDelta delta(EnvironmentCacheKey key, String fromVersion, Map<String, Object> added,
+                                         Map<String, Object> changed, List<String> removed) {
+        return new EnvironmentDelta(key, fromVersion, added, changed, removed, null);
+    }
+
+    public static EnvironmentDelta full(EnvironmentCacheKey key, String fromVersion, Environment environment) {
+        return new EnvironmentDelta(key, fromVersion, Collections.emptyMap(), Collections.emptyMap(),
+                Collections.emptyList(), environment);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProfiles() {
+        return profiles;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getFromVersion() {
+        return fromVersion;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isFull() {
+        return environment != null;
+    }
+
+    public Map<String, Object> getAdded() {
+        return added;
+    }
+
+    public Map<String, Object> getChanged() {
+        return changed;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public Environment getEnvironment() {
+        return environment;
+    }
+}
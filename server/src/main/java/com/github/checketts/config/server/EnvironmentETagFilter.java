@@ -0,0 +1,93 @@
+package com.github.checketts.config.server;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers conditional {@code GET /config/**} requests from the repository version alone: the ETag is derived from
+ * the version and the generation of the encryption keys plus the request coordinates and the negotiated
+ * representation, so a client already holding the current environment gets a 304 without the environment being
+ * resolved at all. Only successful responses carry the ETag, errors must not be revalidated into a 304.
+ */
+@Component
+public class EnvironmentETagFilter extends OncePerRequestFilter {
+
+    static final String CONFIG_PATH = "/config/";
+    // Paths of RepositoryVersionWatchController, whose responses change without a new repository version
+    private static final List<String> WATCH_PATHS = Arrays.asList("/config/watch", "/config/watch/",
+            "/config/watch/stream", "/config/watch/stream/");
+
+    private final LatestRefreshedRepositoryVersionHolder versionHolder;
+    private final KeyAliasTextEncryptorLocator encryptorLocator;
+
+    @Autowired
+    public EnvironmentETagFilter(LatestRefreshedRepositoryVersionHolder versionHolder,
+                                 KeyAliasTextEncryptorLocator encryptorLocator) {
+        this.versionHolder = versionHolder;
+        this.encryptorLocator = encryptorLocator;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"GET".equals(request.getMethod())
+                || !request.getRequestURI().startsWith(request.getContextPath() + CONFIG_PATH)
+                || WATCH_PATHS.contains(request.getRequestURI().substring(request.getContextPath().length()))
+                || !versionHolder.isRepositoryVersionKnown();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        // Taken before the environment is resolved, so keys rebuilt meanwhile can only make the ETag older than the
+        // response, which costs the client a full response on its next request
+        String etag = etag(versionHolder.getLatestRefreshedRepositoryVersion(), encryptorLocator.getGeneration(),
+                request);
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        // Buffered, as the status is only known once the body is written
+        ContentCachingResponseWrapper buffered = new ContentCachingResponseWrapper(response);
+        filterChain.doFilter(request, buffered);
+        if (buffered.getStatusCode() >= 200 && buffered.getStatusCode() < 300) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+        }
+        buffered.copyBodyToResponse();
+    }
+
+    //@VisibleForTesting
+    static String etag(String version, long keysGeneration, HttpServletRequest request) {
+        String coordinates = version + '|' + keysGeneration
+                + '|' + request.getRequestURI() + '?' + request.getQueryString()
+                + '|' + request.getHeader(HttpHeaders.ACCEPT) + '|' + request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return '"' + DigestUtils.md5DigestAsHex(coordinates.getBytes(StandardCharsets.UTF_8)) + '"';
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (!StringUtils.hasText(ifNoneMatch)) {
+            return false;
+        }
+        for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+            candidate = candidate.trim();
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.checketts.config.server;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes per-stage latency percentiles of environment requests, overall as e.g.
+ * {@code environment.resolution.decryption.p99} and per application and profiles as e.g.
+ * {@code environment.resolution.app.myService.prod.decryption.p99}, in milliseconds. Besides the stages there are
+ * {@code total} timings, counters of decrypted values, filtered device keys and requests coalesced with a concurrent
+ * identical one, and payload size percentiles.
+ * Percentiles favor the last five minutes. Requests taking longer than the slow request threshold are logged with
+ * their stage breakdown.
+ */
+@Component
+public class EnvironmentResolutionMetrics implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EnvironmentResolutionMetrics.class);
+    private static final String PREFIX = "environment.resolution";
+    private static final String OTHER = "other";
+
+    private final ResolutionMetricsProperties properties;
+    private final Series overall = new Series();
+    private final ConcurrentMap<String, Series> byEnvironment = new ConcurrentHashMap<>();
+
+    @Autowired
+    public EnvironmentResolutionMetrics(ResolutionMetricsProperties properties) {
+        this.properties = properties;
+    }
+
+    public void record(ResolutionTrace trace) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long totalNanos = trace.getElapsedNanos();
+        overall.record(trace, totalNanos);
+        series(trace.getName() + "." + trace.getProfiles()).record(trace, totalNanos);
+
+        long thresholdMillis = properties.getSlowRequestThresholdMillis();
+        if (thresholdMillis > 0 && totalNanos >= TimeUnit.MILLISECONDS.toNanos(thresholdMillis)) {
+            StringBuilder stages = new StringBuilder();
+            trace.getStageNanos().forEach((stage, nanos) -> stages.append(stages.length() == 0 ? "" : ", ")
+                    .append(stage.getMetricName()).append('=').append(toMillis(nanos)));
+            LOG.warn("Slow environment request. name={}, profiles={}, totalMillis={}, stageMillis=[{}], "
+                            + "decryptedValues={}, filteredDeviceKeys={}, payloadBytes={}", trace.getName(),
+                    trace.getProfiles(), toMillis(totalNanos), stages, trace.getDecryptedValues(),
+                    trace.getFilteredDeviceKeys(), trace.getPayloadBytes());
+        }
+    }
+
+    private Series series(String environment) {
+        Series series = byEnvironment.get(environment);
+        if (series != null) {
+            return series;
+        }
+        // Names and profiles come from request paths, so only a bounded number of them get their own series
+        String key = byEnvironment.size() < properties.getMaxTaggedEnvironments() ? environment : OTHER;
+        return byEnvironment.computeIfAbsent(key, k -> new Series());
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        overall.addMetrics(PREFIX, metrics);
+        byEnvironment.forEach((environment, series) -> series.addMetrics(PREFIX + ".app." + environment, metrics));
+        return metrics;
+    }
+
+    private static double toMillis(double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static class Series {
+        final Map<ResolutionTrace.Stage, Timer> stages = new EnumMap<>(ResolutionTrace.Stage.class);
+        final Timer total = new Timer();
+        final Counter decryptedValues = new Counter();
+        final Counter filteredDeviceKeys = new Counter();
+        final Counter coalesced = new Counter();
+        final Histogram payloadBytes = new Histogram(new ExponentiallyDecayingReservoir());
+
+        Series() {
+            for (ResolutionTrace.Stage stage : ResolutionTrace.Stage.values()) {
+                stages.put(stage, new Timer());
+            }
+        }
+
+        void record(ResolutionTrace trace, long totalNanos) {
+            trace.getStageNanos().forEach((stage, nanos) -> stages.get(stage).update(nanos, TimeUnit.NANOSECONDS));
+            total.update(totalNanos, TimeUnit.NANOSECONDS);
+            decryptedValues.inc(trace.getDecryptedValues());
+            filteredDeviceKeys.inc(trace.getFilteredDeviceKeys());
+            if (trace.isCoalesced()) {
+                coalesced.inc();
+            }
+            if (trace.getPayloadBytes() >= 0) {
+                payloadBytes.update(trace.getPayloadBytes());
+            }
+        }
+
+        void addMetrics(String prefix, List<Metric<?>> metrics) {
+            stages.forEach((stage, timer) -> addTimer(prefix + "." + stage.getMetricName(), timer, metrics));
+            addTimer(prefix + ".total", total, metrics);
+            metrics.add(new Metric<>(prefix + ".decrypted.values", decryptedValues.getCount()));
+            metrics.add(new Metric<>(prefix + ".filtered.device.keys", filteredDeviceKeys.getCount()));
+            metrics.add(new Metric<>(prefix + ".coalesced", coalesced.getCount()));
+            if (payloadBytes.getCount() > 0) {
+                Snapshot payload = payloadBytes.getSnapshot();
+                metrics.add(new Metric<>(prefix + ".payload.bytes.p50", payload.getMedian()));
+                metrics.add(new Metric<>(prefix + ".payload.bytes.p95", payload.get95thPercentile()));
+                metrics.add(new Metric<>(prefix + ".payload.bytes.p99", payload.get99thPercentile()));
+                metrics.add(new Metric<>(prefix + ".payload.bytes.max", payload.getMax()));
+            }
+        }
+
+        private static void addTimer(String name, Timer timer, List<Metric<?>> metrics) {
+            if (timer.getCount() == 0) {
+                return;
+            }
+            Snapshot snapshot = timer.getSnapshot();
+            metrics.add(new Metric<>(name + ".count", timer.getCount()));
+            metrics.add(new Metric<>(name + ".p50", toMillis(snapshot.getMedian())));
+            metrics.add(new Metric<>(name + ".p95", toMillis(snapshot.get95thPercentile())));
+            metrics.add(new Metric<>(name + ".p99", toMillis(snapshot.get99thPercentile())));
+            metrics.add(new Metric<>(name + ".max", toMillis(snapshot.getMax())));
+        }
+    }
+}
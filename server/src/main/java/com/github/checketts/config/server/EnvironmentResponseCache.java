@@ -0,0 +1,107 @@
+package com.github.checketts.config.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialized, gzip compressed environments per request coordinates, repository version and format. Responses are
+ * written from these bytes without serializing again; uncompressed bytes are only produced for clients that do not
+ * accept gzip. Without a known repository version nothing is cached, and environments are serialized for the client
+ * only.
+ */
+@Component
+public class EnvironmentResponseCache {
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final MediaType SMILE = MediaType.valueOf(SMILE_VALUE);
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final Cache<Map.Entry<EnvironmentCacheKey, MediaType>, byte[]> responses;
+
+    @Autowired
+    public EnvironmentResponseCache(ObjectMapper jsonMapper,
+                                    @Value("${config.server.response-cache.max-weight-bytes:67108864}") long maxWeightBytes,
+                                    CacheMetrics cacheMetrics) {
+        this.jsonMapper = jsonMapper;
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((Map.Entry<EnvironmentCacheKey, MediaType> key, byte[] bytes) -> bytes.length)
+                .recordStats()
+                .build();
+        cacheMetrics.register("environmentResponse", responses);
+    }
+
+    /**
+     * @param format either {@link MediaType#APPLICATION_JSON} or {@link #SMILE}
+     * @param gzip   whether the client accepts gzip
+     * @param trace  records the serialization stage if the response was not cached
+     * @return the serialized environment, gzip compressed if {@code gzip}
+     */
+    public byte[] serialized(EnvironmentCacheKey key, MediaType format, boolean gzip,
+                             Supplier<Environment> environment, ResolutionTrace trace) {
+        if (LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(key.getVersion())) {
+            return serialize(environment.get(), format, gzip, trace);
+        }
+        Map.Entry<EnvironmentCacheKey, MediaType> responseKey = new SimpleImmutableEntry<>(key, format);
+        byte[] gzipped = responses.getIfPresent(responseKey);
+        if (gzipped == null) {
+            // Resolved outside of the cache, so a slow resolution does not hold up other requests on the cache;
+            // identical concurrent requests already share one resolution
+            gzipped = serialize(environment.get(), format, true, trace);
+            responses.put(responseKey, gzipped);
+        }
+        return gzip ? gzipped : gunzip(gzipped);
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanged(RepositoryVersionChangedEvent event) {
+        responses.asMap().keySet().removeIf(key -> !event.getVersion().equals(key.getKey().getVersion()));
+    }
+
+    @EventListener
+    public void onEncryptionKeysChanged(EncryptionKeysChangedEvent event) {
+        responses.asMap().keySet().removeIf(key -> key.getKey().getKeysGeneration() != event.getGeneration());
+    }
+
+    private static byte[] gunzip(byte[] gzipped) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return StreamUtils.copyToByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] serialize(Environment environment, MediaType format, boolean gzip, ResolutionTrace trace) {
+        long start = trace.start();
+        ObjectMapper mapper = SMILE.equals(format) ? smileMapper : jsonMapper;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            mapper.writeValue(out, environment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        trace.stop(ResolutionTrace.Stage.SERIALIZATION, start);
+        return bytes.toByteArray();
+    }
+}
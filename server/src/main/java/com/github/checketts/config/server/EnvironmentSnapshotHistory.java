@@ -0,0 +1,118 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps the effective properties of resolved environments for recent repository versions, so the difference
+ * between two versions can be computed without resolving the older one again. Unlike
+ * {@link ResolvedEnvironmentCache} older versions are kept, up to {@code maxVersions} of them, until evicted by size.
+ */
+@Component
+public class EnvironmentSnapshotHistory {
+
+    private final Cache<EnvironmentCacheKey, Map<String, Object>> snapshots;
+    private final int maxVersions;
+    // Most recent last
+    private final Deque<String> versions = new ArrayDeque<>();
+
+    @Autowired
+    public EnvironmentSnapshotHistory(@Value("${config.server.snapshot-history.max-entries:500}") long maxEntries,
+                                      @Value("${config.server.snapshot-history.max-versions:5}") int maxVersions,
+                                      CacheMetrics cacheMetrics) {
+        this.maxVersions = maxVersions;
+        this.snapshots = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        cacheMetrics.register("snapshotHistory", snapshots);
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanged(RepositoryVersionChangedEvent event) {
+        Set<String> kept;
+        synchronized (versions) {
+            // The version a change starts from may have been published before this listener was registered, e.g. by
+            // a repository loading its files on startup
+            if (!LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(event.getPreviousVersion())
+                    && !versions.contains(event.getPreviousVersion())) {
+                versions.addLast(event.getPreviousVersion());
+            }
+            versions.remove(event.getVersion());
+            versions.addLast(event.getVersion());
+            while (versions.size() > maxVersions) {
+                versions.removeFirst();
+            }
+            kept = new HashSet<>(versions);
+        }
+        snapshots.asMap().keySet().removeIf(key -> !kept.contains(key.getVersion()));
+    }
+
+    /**
+     * Snapshots decrypted with other keys are dropped, so deltas across a key change are full responses.
+     */
+    @EventListener
+    public void onEncryptionKeysChanged(EncryptionKeysChangedEvent event) {
+        snapshots.asMap().keySet().removeIf(key -> key.getKeysGeneration() != event.getGeneration());
+    }
+
+    public void record(EnvironmentCacheKey key, Environment environment) {
+        snapshots.get(key, k -> flatten(environment));
+    }
+
+    /**
+     * @return the delta from {@code fromVersion} to the version of {@code key}, or a full response if the snapshot
+     * of {@code fromVersion} is not (or no longer) known
+     */
+    public EnvironmentDelta delta(EnvironmentCacheKey key, String fromVersion, Environment environment) {
+        Map<String, Object> from = snapshots.getIfPresent(
+                new EnvironmentCacheKey(key.getName(), key.getProfiles(), key.getLabel(), fromVersion,
+                        key.getKeysGeneration()));
+        if (from == null) {
+            return EnvironmentDelta.full(key, fromVersion, environment);
+        }
+        Map<String, Object> to = snapshots.get(key, k -> flatten(environment));
+
+        Map<String, Object> added = new LinkedHashMap<>();
+        Map<String, Object> changed = new LinkedHashMap<>();
+        List<String> removed = new ArrayList<>();
+        to.forEach((name, value) -> {
+            if (!from.containsKey(name)) {
+                added.put(name, value);
+            } else if (!Objects.equals(from.get(name), value)) {
+                changed.put(name, value);
+            }
+        });
+        from.keySet().stream().filter(name -> !to.containsKey(name)).forEach(removed::add);
+        return EnvironmentDelta.delta(key, fromVersion, added, changed, removed);
+    }
+
+    /**
+     * @return the effective value of every property, earlier property sources taking precedence
+     */
+    private static Map<String, Object> flatten(Environment environment) {
+        Map<String, Object> effective = new LinkedHashMap<>();
+        List<PropertySource> sources = environment.getPropertySources();
+        for (int i = sources.size() - 1; i >= 0; i--) {
+            sources.get(i).getSource().forEach((name, value) -> effective.put(String.valueOf(name), value));
+        }
+        return Collections.unmodifiableMap(effective);
+    }
+}
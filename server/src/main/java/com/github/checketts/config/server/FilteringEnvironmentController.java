@@ -6,22 +6,33 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.config.environment.Environment;
 import org.springframework.cloud.config.environment.PropertySource;
 import org.springframework.cloud.config.server.config.ConfigServerProperties;
-import org.springframework.cloud.config.server.encryption.EnvironmentEncryptor;
 import org.springframework.cloud.config.server.environment.EnvironmentController;
-import org.springframework.cloud.config.server.environment.EnvironmentEncryptorEnvironmentRepository;
 import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by clintchecketts on 10/20/15.
@@ -31,149 +42,317 @@ import java.util.regex.Pattern;
 public class FilteringEnvironmentController extends EnvironmentController {
 
     private static final Logger LOG = LoggerFactory.getLogger(FilteringEnvironmentController.class);
-    private static final Pattern devicePattern = Pattern.compile("(deviceDefinitions.[\\w\\.]+).devices\\[\\d*\\]");
-    private static final Pattern superPattern = Pattern.compile("(deviceDefinitions.[\\w\\.]+).subtypes\\.[\\w_]+");
+    // Overrides the unconditional mappings of the inherited endpoints, which would otherwise win over the JSON
+    // mappings for */* and requests without Accept
+    private static final String NOT_JSON = "!" + MediaType.APPLICATION_JSON_VALUE;
+
+    private final EnvironmentRepository repository;
+    private final SanitizeEnforcingEnvironmentEncryptor environmentEncryptor;
+    private final KeyAliasTextEncryptorLocator encryptorLocator;
+    private final Map<String, String> overrides;
+    private final LatestRefreshedRepositoryVersionHolder versionHolder;
+    private final RepositoryVersionPoller versionPoller;
+    private final ResolvedEnvironmentCache environmentCache;
+    private final DeviceDefinitionIndexCache deviceDefinitionIndexCache;
+    private final EnvironmentSnapshotHistory snapshotHistory;
+    private final EnvironmentResponseCache responseCache;
+    private final EnvironmentCacheWarmer cacheWarmer;
+    private final SharedPropertySources sharedPropertySources;
+    private final EnvironmentResolutionMetrics resolutionMetrics;
+    // Resolutions in progress, so identical concurrent requests wait for one instead of each resolving
+    private final ConcurrentMap<EnvironmentCacheKey, CompletableFuture<Environment>> inFlight =
+            new ConcurrentHashMap<>();
 
     @Autowired
     public FilteringEnvironmentController(EnvironmentRepository repository,
-                                          EnvironmentEncryptor environmentEncryptor,
-                                          ConfigServerProperties configServerProperties) {
-        super(encrypted(repository, environmentEncryptor, configServerProperties));
-    }
-
-    private static EnvironmentEncryptorEnvironmentRepository encrypted(EnvironmentRepository repository,
-                                                                       EnvironmentEncryptor environmentEncryptor,
-                                                                       ConfigServerProperties configServerProperties) {
-        EnvironmentEncryptorEnvironmentRepository encrypted =
-                new EnvironmentEncryptorEnvironmentRepository(repository, environmentEncryptor);
-        encrypted.setOverrides(configServerProperties.getOverrides());
-        return encrypted;
+                                          SanitizeEnforcingEnvironmentEncryptor environmentEncryptor,
+                                          KeyAliasTextEncryptorLocator encryptorLocator,
+                                          ConfigServerProperties configServerProperties,
+                                          LatestRefreshedRepositoryVersionHolder versionHolder,
+                                          RepositoryVersionPoller versionPoller,
+                                          ResolvedEnvironmentCache environmentCache,
+                                          DeviceDefinitionIndexCache deviceDefinitionIndexCache,
+                                          EnvironmentSnapshotHistory snapshotHistory,
+                                          EnvironmentResponseCache responseCache,
+                                          EnvironmentCacheWarmer cacheWarmer,
+                                          SharedPropertySources sharedPropertySources,
+                                          EnvironmentResolutionMetrics resolutionMetrics) {
+        // Decryption is not delegated to EnvironmentEncryptorEnvironmentRepository, so that it only happens for values
+        // that survive device filtering
+        super(repository);
+        this.repository = repository;
+        this.environmentEncryptor = environmentEncryptor;
+        this.encryptorLocator = encryptorLocator;
+        this.overrides = configServerProperties.getOverrides();
+        this.versionHolder = versionHolder;
+        this.versionPoller = versionPoller;
+        this.environmentCache = environmentCache;
+        this.deviceDefinitionIndexCache = deviceDefinitionIndexCache;
+        this.snapshotHistory = snapshotHistory;
+        this.responseCache = responseCache;
+        this.cacheWarmer = cacheWarmer;
+        this.sharedPropertySources = sharedPropertySources;
+        this.resolutionMetrics = resolutionMetrics;
     }
 
     //@VisibleForTesting
-    static boolean isRequiredDefault(String key, List<String> deviceTypes) {
-        for (String deviceType : deviceTypes) {
-            if (key.startsWith(deviceType + ".defaults")) {
-                return true;
-            }
+    static List<String> getDeviceTypeAndSuperTypes(String prefix) {
+        List<String> deviceTypes = DeviceTypeHierarchy.typeChain(prefix);
+        if (deviceTypes.isEmpty()) {
+            LOG.warn("Invalid device property. Device Properties should end with devices[\\d] and start with deviceDefinitions. was [{}]", prefix);
         }
-        return false;
+        return deviceTypes;
+    }
+
+    /**
+     * Only mapped for clients that do not accept JSON, so neither for clients accepting any media type nor without an
+     * {@code Accept} header; those are served by {@link #labelledBytes}.
+     */
+    @Override
+    @RequestMapping(value = "/{name}/{profiles:.*[^-].*}", produces = NOT_JSON)
+    public Environment defaultLabel(@PathVariable String name, @PathVariable String profiles) {
+        return super.defaultLabel(name, profiles);
+    }
+
+    @Override
+    @RequestMapping(value = "/{name}/{profiles}/{label:.*}", produces = NOT_JSON)
+    public Environment labelled(@PathVariable String name, @PathVariable String profiles,
+                                @PathVariable String label) {
+        cacheWarmer.track(name, profiles, label);
+        versionPoller.track(label);
+        ResolutionTrace trace = new ResolutionTrace(name, profiles);
+        Environment env = labelled(cacheKey(name, profiles, label, versionHolder.getLatestRefreshedRepositoryVersion()),
+                trace);
+        resolutionMetrics.record(trace);
+        return env;
     }
 
-    private static String getTypeFromDevice(String deviceString) {
-        Matcher typeMatcher = devicePattern.matcher(deviceString);
-        if (typeMatcher.matches()) {
-            return typeMatcher.group(1);
-        } else {
-            return null;
+    /**
+     * Serves JSON or Smile environments from {@link EnvironmentResponseCache}, gzip compressed unless the client does
+     * not accept gzip. Smile when the client lists it, otherwise JSON, also for clients accepting any media type or
+     * sending no {@code Accept}. {@link #labelled(String, String, String)} stays mapped for other media types.
+     */
+    @RequestMapping(value = "/{name}/{profiles}/{label:.*}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, EnvironmentResponseCache.SMILE_VALUE})
+    public ResponseEntity<byte[]> labelledBytes(@PathVariable String name, @PathVariable String profiles,
+                                                @PathVariable String label, @RequestHeader HttpHeaders headers) {
+        cacheWarmer.track(name, profiles, label);
+        versionPoller.track(label);
+        String version = versionHolder.getLatestRefreshedRepositoryVersion();
+        MediaType format = headers.getAccept().stream().anyMatch(FilteringEnvironmentController::isSmile)
+                ? EnvironmentResponseCache.SMILE : MediaType.APPLICATION_JSON;
+        ResolutionTrace trace = new ResolutionTrace(name, profiles);
+        String acceptEncoding = headers.getFirst(HttpHeaders.ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        EnvironmentCacheKey key = cacheKey(name, profiles, label, version);
+        byte[] body = responseCache.serialized(key, format, gzip, () -> labelled(key, trace), trace);
+
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(format);
+        responseHeaders.set(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            responseHeaders.set(HttpHeaders.CONTENT_ENCODING, "gzip");
         }
+        trace.setPayloadBytes(body.length);
+        resolutionMetrics.record(trace);
+        return new ResponseEntity<>(body, responseHeaders, HttpStatus.OK);
     }
 
-    //@VisibleForTesting
-    static List<String> getDeviceTypeAndSuperTypes(String prefix) {
-        List<String> deviceTypes = new ArrayList<>();
-        String device = getTypeFromDevice(prefix);
-        if (device == null) {
-            LOG.warn("Invalid device property. Device Properties should end with devices[\\d] and start with deviceDefinitions. was [{}]", prefix);
-            return deviceTypes;
+    @RequestMapping(value = "/{name}/{profiles:.*[^-].*}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, EnvironmentResponseCache.SMILE_VALUE})
+    public ResponseEntity<byte[]> defaultLabelBytes(@PathVariable String name, @PathVariable String profiles,
+                                                    @RequestHeader HttpHeaders headers) {
+        return labelledBytes(name, profiles, null, headers);
+    }
+
+    private static boolean isSmile(MediaType mediaType) {
+        return EnvironmentResponseCache.SMILE.getType().equals(mediaType.getType())
+                && EnvironmentResponseCache.SMILE.getSubtype().equals(mediaType.getSubtype());
+    }
+
+    /**
+     * Returns only the properties added, changed or removed since {@code fromVersion}, after the same filtering and
+     * sanitization as {@link #labelled(String, String, String)}. Falls back to the whole environment when the
+     * snapshot of {@code fromVersion} is no longer known.
+     */
+    @RequestMapping("/{name}/{profiles}/{label}/delta")
+    public EnvironmentDelta delta(@PathVariable String name, @PathVariable String profiles,
+                                  @PathVariable String label, @RequestParam String fromVersion) {
+        cacheWarmer.track(name, profiles, label);
+        versionPoller.track(label);
+        EnvironmentCacheKey key = cacheKey(name, profiles, label, versionHolder.getLatestRefreshedRepositoryVersion());
+        ResolutionTrace trace = new ResolutionTrace(name, profiles);
+        Environment env = labelled(key, trace);
+        resolutionMetrics.record(trace);
+        return snapshotHistory.delta(key, fromVersion, env);
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanging(RepositoryVersionChangingEvent event) {
+        cacheWarmer.warm(event.getVersion(),
+                // Warming is not a request, its traces are not recorded
+                key -> labelled(cacheKey(key.getName(), key.getProfiles(), key.getLabel(), key.getVersion()),
+                        new ResolutionTrace(key.getName(), key.getProfiles())));
+    }
+
+    /**
+     * Also pins the key to the current encryption keys, which change without a new repository version. Taken before
+     * resolving, so encryptors rebuilt meanwhile can only leave newer values under an older key.
+     */
+    private EnvironmentCacheKey cacheKey(String name, String profiles, String label, String version) {
+        return new EnvironmentCacheKey(name, profiles, label, version, encryptorLocator.getGeneration());
+    }
+
+    private Environment labelled(EnvironmentCacheKey key, ResolutionTrace trace) {
+        // Without a known repository version there is no way to tell whether a cached environment is stale
+        if (LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(key.getVersion())) {
+            return resolve(key, trace);
         }
-        //add the device itself
-        deviceTypes.add(device);
-
-        //start looking for super types
-        String superType = device;
-        while (superType.length() > 0) {
-            Matcher superMatcher = superPattern.matcher(superType);
-            if (superMatcher.matches()) {
-                superType = superMatcher.group(1);
-                deviceTypes.add(superType);
-            } else {
-                //done finding devices
-                break;
+        Environment env = environmentCache.get(key);
+        if (env != null) {
+            return env;
+        }
+
+        CompletableFuture<Environment> resolution = new CompletableFuture<>();
+        CompletableFuture<Environment> leader = inFlight.putIfAbsent(key, resolution);
+        if (leader != null) {
+            trace.setCoalesced();
+            return join(leader);
+        }
+        try {
+            // A leader may have finished between the lookup and registering, in which case its result is cached
+            env = environmentCache.get(key);
+            if (env == null) {
+                env = resolve(key, trace);
+                environmentCache.put(key, env);
+                snapshotHistory.record(key, env);
             }
+            resolution.complete(env);
+            return env;
+        } catch (RuntimeException | Error e) {
+            resolution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, resolution);
         }
-        return deviceTypes;
     }
 
-    @Override
-    public Environment labelled(@PathVariable String name, @PathVariable String profiles,
-                                @PathVariable String label) {
-        Environment env = super.labelled(name, profiles, label);
+    private static Environment join(CompletableFuture<Environment> resolution) {
+        try {
+            return resolution.join();
+        } catch (CompletionException e) {
+            // Waiting requests fail the same way as the one that resolved
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
 
-        addEnvironmentRepoMetadata(env);
+    private Environment resolve(EnvironmentCacheKey key, ResolutionTrace trace) {
+        String name = key.getName();
+        String label = key.getLabel();
+        String version = key.getVersion();
+        long repositoryStart = trace.start();
+        // Warming resolves a version before it is published, which only a versioned repository can serve
+        Environment env = repository instanceof VersionedEnvironmentRepository
+                ? ((VersionedEnvironmentRepository) repository).findOne(name, key.getProfiles(),
+                label == null ? null : label.replace("(_)", "/"), version)
+                : super.labelled(name, key.getProfiles(), label);
+        String repositoryVersion = env.getVersion();
+        List<PropertySource> sources = env.getPropertySources();
+        sources.replaceAll(source -> sharedPropertySources.share(version, label, source.getName(), null, null,
+                source::getSource));
+        trace.stop(ResolutionTrace.Stage.REPOSITORY, repositoryStart);
+        // Device definition prefixes kept in each source, null while unfiltered, which together with the name
+        // identify a shared layer
+        List<Collection<String>> keptPrefixes = new ArrayList<>(
+                Collections.<Collection<String>>nCopies(sources.size(), null));
 
-        List<String> serviceDevices = findAssignedDevices(env);
+        // Filter while values are still ciphertext, so secrets of unassigned devices are never decrypted
         if (!"application".equals(name)) {
-            removeUnassignedDeviceDefinitions(env, serviceDevices);
+            long assignedDevicesStart = trace.start();
+            List<DeviceDefinitionIndex> indexes = new ArrayList<>(sources.size());
+            sources.forEach(source -> indexes.add(deviceDefinitionIndexCache.index(version, label, source)));
+            Set<String> serviceDevices = findAssignedDevices(indexes);
+            trace.stop(ResolutionTrace.Stage.ASSIGNED_DEVICES, assignedDevicesStart);
+
+            long filteringStart = trace.start();
+            removeUnassignedDeviceDefinitions(env, version, label, indexes, serviceDevices, keptPrefixes, trace);
+            trace.stop(ResolutionTrace.Stage.DEVICE_FILTERING, filteringStart);
+        }
+
+        List<PropertySource> encrypted = new ArrayList<>(env.getPropertySources());
+        env = environmentEncryptor.decrypt(env, trace);
+        // Only sources that held ciphertext were copied by decryption, the others are still shared
+        ListIterator<PropertySource> decrypted = env.getPropertySources().listIterator();
+        for (int i = 0; decrypted.hasNext(); i++) {
+            PropertySource source = decrypted.next();
+            if (source.getSource() != encrypted.get(i).getSource()) {
+                decrypted.set(sharedPropertySources.share(version, label, source.getName(), keptPrefixes.get(i),
+                        key.getKeysGeneration(), source::getSource));
+            }
         }
+        long overridesStart = trace.start();
+        if (!overrides.isEmpty()) {
+            env.addFirst(new PropertySource("overrides", overrides));
+        }
+        trace.stop(ResolutionTrace.Stage.OVERRIDES, overridesStart);
+
+        addEnvironmentRepoMetadata(env, repositoryVersion);
         return env;
     }
 
-    private void addEnvironmentRepoMetadata(Environment env) {
-        String version = null == env.getVersion() ? "unknown" : env.getVersion();
+    private void addEnvironmentRepoMetadata(Environment env, String repositoryVersion) {
+        String version = null == repositoryVersion ? "unknown" : repositoryVersion;
         env.addFirst(new PropertySource("environment-repository-metadata", Collections.singletonMap(
                 "cloud.config.environment.repository.version", version)));
     }
 
-    private void removeUnassignedDeviceDefinitions(Environment env, List<String> serviceDevices) {
-        List<DeviceDefinitionPart> deviceDefinitons = new ArrayList<>();
-        List<String> assignedServiceDevicePrefixes = new ArrayList<>();
-        List<String> unassignedDevices = new ArrayList<>();
-
-        env.getPropertySources().stream().forEach(propSource -> {
-            Iterator<? extends Map.Entry<?, ?>> it = propSource.getSource().entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry entry = it.next();
-                String key = (String) entry.getKey();
-                if (key.startsWith("deviceDefinitions")) {
-                    it.remove();
-                    deviceDefinitons.add(new DeviceDefinitionPart(key, entry.getValue(), propSource));
-                    if (key.endsWith(".id")) {
-                        if (serviceDevices.contains(entry.getValue())) {
-                            assignedServiceDevicePrefixes.add(key.replace(".id", ""));
-                        } else {
-                            unassignedDevices.add(entry.getValue().toString());
-                        }
-                    }
-                }
-            }
-        });
-
-        LOG.debug("Removing properties for devices not assigned to service. allowed={}, removed={}", serviceDevices,
-                unassignedDevices);
-
-        assignedServiceDevicePrefixes.stream().forEach(prefix -> {
-            List<String> deviceTypes = getDeviceTypeAndSuperTypes(prefix);
-            deviceDefinitons.stream()
-                    .filter(def -> def.key.startsWith(prefix) || isRequiredDefault(def.key, deviceTypes))
-                    .forEach(def -> {
-                        Map<String, Object> sourceMap = (Map<String, Object>) def.source.getSource();
-                        sourceMap.put(def.key, def.value);
-                    });
-        });
-    }
+    //@VisibleForTesting
+    void removeUnassignedDeviceDefinitions(Environment env, String version, String label,
+                                           List<DeviceDefinitionIndex> indexes, Set<String> serviceDevices,
+                                           List<Collection<String>> keptPrefixes, ResolutionTrace trace) {
+        DeviceTypeHierarchy hierarchy = deviceDefinitionIndexCache.hierarchy(version, label, indexes);
 
-    private List<String> findAssignedDevices(Environment env) {
-        List<String> devices = new ArrayList();
+        if (LOG.isDebugEnabled()) {
+            Set<String> unassignedDevices = new LinkedHashSet<>();
+            hierarchy.getDeviceIds().forEach(unassignedDevices::add);
+            unassignedDevices.removeAll(serviceDevices);
+            LOG.debug("Removing properties for devices not assigned to service. allowed={}, removed={}",
+                    serviceDevices, unassignedDevices);
+        }
 
-        env.getPropertySources().stream().forEach(propSource -> {
-            propSource.getSource().entrySet().stream()
-                    .filter(entry -> ((String) entry.getKey()).startsWith("devices["))
-                    .forEach(entry -> devices.add((String) entry.getValue()));
-        });
+        // Devices of the same type share the prefixes of its defaults, which are collected once
+        Set<String> requiredPrefixes = new LinkedHashSet<>();
+        serviceDevices.forEach(deviceId -> hierarchy.getDevices(deviceId)
+                .forEach(device -> requiredPrefixes.addAll(device.getRequiredPrefixes())));
 
-        return devices;
+        ListIterator<PropertySource> sources = env.getPropertySources().listIterator();
+        for (DeviceDefinitionIndex index : indexes) {
+            Map<?, ?> unfiltered = sources.next().getSource();
+            if (!index.hasDeviceDefinitions()) {
+                continue;
+            }
+            keptPrefixes.set(sources.previousIndex(), requiredPrefixes);
+            PropertySource filtered = sharedPropertySources.share(version, label, index.getSourceName(),
+                    requiredPrefixes, null, () -> {
+                        Map<Object, Object> properties = new LinkedHashMap<>(index.getOtherProperties());
+                        requiredPrefixes.forEach(prefix -> index.collect(prefix, properties::put));
+                        return properties;
+                    });
+            trace.addFilteredDeviceKeys(unfiltered.size() - filtered.getSource().size());
+            sources.set(filtered);
+        }
     }
 
-    private static class DeviceDefinitionPart {
-        String key;
-        Object value;
-        PropertySource source;
-
-        public DeviceDefinitionPart(String key, Object value, PropertySource source) {
-            this.key = key;
-            this.value = value;
-            this.source = source;
-        }
+    //@VisibleForTesting
+    static Set<String> findAssignedDevices(List<DeviceDefinitionIndex> indexes) {
+        Set<String> devices = new LinkedHashSet<>();
+        indexes.forEach(index -> devices.addAll(index.getAssignedDeviceIds()));
+        return devices;
     }
 }
@@ -1,10 +1,14 @@
 package com.github.checketts.config.server;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import org.slf4j.Logger;
@@ -13,12 +17,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.sql.Date;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Component
@@ -29,17 +40,44 @@ public class JwtUtils {
     public static final String APP_AUTHORITIES = "appAuthorities";
     private final static Logger LOG = LoggerFactory.getLogger(JwtUtils.class);
     private final List<MACVerifier> serviceAuthVerifiers;
+    private final Map<String, MACVerifier> serviceAuthVerifiersByKeyId;
+    private final String signingKeyId;
+    private final Cache<Base64URL, VerifiedToken> verifiedTokens;
     private SecureRandom secureRandom;
 
     @Autowired
     public JwtUtils(@Value("#{'${config.server.authentication.jwt.secrets}'.split(',')}")
-                            List<String> appServiceAuthSecrets) {
+                            List<String> appServiceAuthSecrets,
+                    @Value("${config.server.authentication.jwt.cache.max-entries:10000}") long maxCachedTokens,
+                    @Value("${config.server.authentication.jwt.cache.ttl-seconds:300}") long cachedTokenTtlSeconds,
+                    CacheMetrics cacheMetrics) {
         this.serviceAuthVerifiers = appServiceAuthSecrets.stream()
                 .map(JwtUtils::newMacVerifier)
                 .collect(Collectors.toList());
+        this.serviceAuthVerifiersByKeyId = new LinkedHashMap<>();
+        serviceAuthVerifiers.forEach(verifier -> serviceAuthVerifiersByKeyId.put(keyId(verifier.getSecret()), verifier));
+        this.signingKeyId = keyId(serviceAuthVerifiers.get(0).getSecret());
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(maxCachedTokens)
+                .expireAfter(new VerifiedTokenExpiry(TimeUnit.SECONDS.toMillis(cachedTokenTtlSeconds)))
+                .recordStats()
+                .build();
+        cacheMetrics.register("serviceJwt", verifiedTokens);
         this.secureRandom = new SecureRandom();
     }
 
+    /**
+     * Names a secret in the {@code kid} header without revealing it: the first 8 bytes of its SHA-256 digest.
+     */
+    private static String keyId(byte[] secret) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret);
+            return Base64URL.encode(Arrays.copyOf(digest, 8)).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private static MACVerifier newMacVerifier(String v) {
         try {
             return new MACVerifier(v);
@@ -54,7 +92,7 @@ public class JwtUtils {
                 .claim(APP_SERVICE, serviceId)
                 .claim(APP_ENVIRONMENT, environmentId)
                 .build();
-        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        SignedJWT jwt = new SignedJWT(newHeader(), claimsSet);
         sign(jwt);
         return jwt;
     }
@@ -70,11 +108,15 @@ public class JwtUtils {
                 .claim(APP_AUTHORITIES, "Admin")
                 .expirationTime(Date.from(instant))
                 .build();
-        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        SignedJWT jwt = new SignedJWT(newHeader(), claimsSet);
         sign(jwt);
         return jwt;
     }
 
+    private JWSHeader newHeader() {
+        return new JWSHeader.Builder(JWSAlgorithm.HS256).keyID(signingKeyId).build();
+    }
+
     private void sign(SignedJWT jwt) {
         try {
             MACSigner signer = new MACSigner(serviceAuthVerifiers.get(0).getSecret());
@@ -91,28 +133,102 @@ public class JwtUtils {
         }
     }
 
+    /**
+     * Verifies the token with the secret named by its {@code kid} header. Tokens issued before key ids were added
+     * are tried against every secret. Verified tokens are remembered by signature until they expire, or for the
+     * configured TTL if they carry no expiry, so repeat callers skip the HMAC.
+     */
     public boolean isValidAppServiceJwt(SignedJWT jwt) throws ParseException {
+        String signingInput = new String(jwt.getSigningInput(), StandardCharsets.UTF_8);
+        VerifiedToken cached = verifiedTokens.getIfPresent(jwt.getSignature());
+        // The signature only identifies the entry, the signed content must match as well
+        if (cached != null && cached.signingInput.equals(signingInput)) {
+            return true;
+        }
+        JWTClaimsSet claimSet = jwt.getJWTClaimsSet();
+        boolean verified = verifyUncached(jwt, claimSet);
+        if (verified) {
+            verifiedTokens.put(jwt.getSignature(), new VerifiedToken(signingInput, claimSet.getExpirationTime()));
+        }
+        return verified;
+    }
+
+    private boolean verifyUncached(SignedJWT jwt, JWTClaimsSet claimSet) {
+        String keyId = jwt.getHeader().getKeyID();
+        if (keyId != null) {
+            MACVerifier verifier = serviceAuthVerifiersByKeyId.get(keyId);
+            if (verifier == null) {
+                LOG.info("App service Jwt signed with unknown key. kid={}, {}", keyId, describe(claimSet));
+                return false;
+            }
+            boolean verified = verify(jwt, verifier, claimSet);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("App service Jwt verified={}. kid={}, {}", verified, keyId, describe(claimSet));
+            }
+            return verified;
+        }
+
         int secretCount = serviceAuthVerifiers.size();
         for (int i = 0; i < secretCount; i++) {
-            JWTClaimsSet claimSet = jwt.getJWTClaimsSet();
-            String serviceId = (String) claimSet.getClaim(APP_SERVICE);
-            String environmentId = (String) claimSet.getClaim(APP_ENVIRONMENT);
-
-            MACVerifier verifier = serviceAuthVerifiers.get(i);
-            String secret = verifier.getSecretString();
-            String secretPrefix = secret.substring(0, Math.min(3, secret.length()));
-            String msgSuffix = String.format("secret=[%s... (%s of %s)], service=%s, env=%s, jwtId=%s",
-                    secretPrefix, i + 1, secretCount, serviceId, environmentId, claimSet.getJWTID());
-            try {
-                boolean verified = jwt.verify(verifier);
-                LOG.info("App service Jwt verified={}. {}", verified, msgSuffix);
-                if (verified) {
-                    return true;
+            if (verify(jwt, serviceAuthVerifiers.get(i), claimSet)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("App service Jwt verified without kid. secret={} of {}, {}", i + 1, secretCount,
+                            describe(claimSet));
                 }
-            } catch (JOSEException e) {
-                throw new IllegalStateException(String.format("Problem verifying JWT token. %s", msgSuffix), e);
+                return true;
             }
         }
+        LOG.info("App service Jwt not verified by any of {} secrets. {}", secretCount, describe(claimSet));
         return false;
     }
+
+    private boolean verify(SignedJWT jwt, MACVerifier verifier, JWTClaimsSet claimSet) {
+        try {
+            return jwt.verify(verifier);
+        } catch (JOSEException e) {
+            throw new IllegalStateException(String.format("Problem verifying JWT token. %s", describe(claimSet)), e);
+        }
+    }
+
+    private static String describe(JWTClaimsSet claimSet) {
+        return String.format("service=%s, env=%s, jwtId=%s", claimSet.getClaim(APP_SERVICE),
+                claimSet.getClaim(APP_ENVIRONMENT), claimSet.getJWTID());
+    }
+
+    private static class VerifiedToken {
+        final String signingInput;
+        final java.util.Date expirationTime;
+
+        VerifiedToken(String signingInput, java.util.Date expirationTime) {
+            this.signingInput = signingInput;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    private static class VerifiedTokenExpiry implements Expiry<Base64URL, VerifiedToken> {
+        private final long ttlMillis;
+
+        VerifiedTokenExpiry(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Override
+        public long expireAfterCreate(Base64URL signature, VerifiedToken token, long currentTime) {
+            long millis = token.expirationTime == null ? ttlMillis
+                    : token.expirationTime.getTime() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        }
+
+        @Override
+        public long expireAfterUpdate(Base64URL signature, VerifiedToken token, long currentTime,
+                                      long currentDuration) {
+            return expireAfterCreate(signature, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Base64URL signature, VerifiedToken token, long currentTime,
+                                    long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package com.github.checketts.config.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.config.server.encryption.TextEncryptorLocator;
+import org.springframework.cloud.context.encrypt.EncryptorFactory;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the {@code {key:alias}} of encrypted values to ready-to-use encryptors built from
+ * {@link EncryptProperties#getKeys()}, falling back to {@code encrypt.key}. Keys are derived once when the
+ * properties are bound or refreshed, never per value.
+ * <p>
+ * Values that carry an alias but were encrypted with {@code encrypt.key}, as the config server did before aliases
+ * were resolved, still decrypt: when the alias key fails, {@code encrypt.key} is tried.
+ * <p>
+ * Every rebuild on a refresh starts a new {@link #getGeneration() generation} and publishes an
+ * {@link EncryptionKeysChangedEvent}, as the repository version does not change with the keys.
+ */
+@Component
+public class KeyAliasTextEncryptorLocator implements TextEncryptorLocator {
+
+    public static final String KEY_ALIAS = "key";
+    private static final Logger LOG = LoggerFactory.getLogger(KeyAliasTextEncryptorLocator.class);
+
+    private final EncryptProperties encryptProperties;
+    private final Environment environment;
+    private final ApplicationEventPublisher eventPublisher;
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Map<String, TextEncryptor> encryptorsByAlias = Collections.emptyMap();
+    private volatile TextEncryptor defaultEncryptor;
+
+    @Autowired
+    public KeyAliasTextEncryptorLocator(EncryptProperties encryptProperties, Environment environment,
+                                        ApplicationEventPublisher eventPublisher) {
+        this.encryptProperties = encryptProperties;
+        this.environment = environment;
+        this.eventPublisher = eventPublisher;
+        rebuild();
+    }
+
+    @Override
+    public TextEncryptor locate(Map<String, String> keys) {
+        return forAlias(keys.get(KEY_ALIAS));
+    }
+
+    public boolean hasAlias(String keyAlias) {
+        return encryptorsByAlias.containsKey(keyAlias);
+    }
+
+    public TextEncryptor forAlias(String keyAlias) {
+        TextEncryptor encryptor = keyAlias == null ? null : encryptorsByAlias.get(keyAlias);
+        if (encryptor == null) {
+            encryptor = defaultEncryptor;
+        }
+        if (encryptor == null) {
+            throw new IllegalStateException("Encryption key not found and no encrypt.key configured. alias=" + keyAlias);
+        }
+        return encryptor;
+    }
+
+    /**
+     * @return the number of times the encryptors were rebuilt from changed keys
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        if (event.getKeys().stream().anyMatch(key -> key.startsWith("config.server.encrypt") || key.startsWith("encrypt."))) {
+            rebuild();
+            eventPublisher.publishEvent(new EncryptionKeysChangedEvent(this, generation.incrementAndGet()));
+        }
+    }
+
+    private void rebuild() {
+        String salt = environment.getProperty("encrypt.salt", "deadbeef");
+        Map<String, TextEncryptor> encryptors = new HashMap<>();
+        Map<String, String> keys = encryptProperties.getKeys();
+        if (keys != null) {
+            keys.forEach((alias, key) -> encryptors.put(alias, newEncryptor(key, salt)));
+        }
+        String defaultKey = environment.getProperty("encrypt.key");
+        TextEncryptor defaultEncryptor = StringUtils.hasText(defaultKey) ? newEncryptor(defaultKey, salt) : null;
+        if (defaultEncryptor != null) {
+            encryptors.replaceAll((alias, encryptor) -> new DefaultKeyFallbackTextEncryptor(alias, encryptor,
+                    defaultEncryptor));
+        }
+        this.defaultEncryptor = defaultEncryptor;
+        this.encryptorsByAlias = Collections.unmodifiableMap(encryptors);
+        LOG.info("Built text encryptors. aliases={}, default={}", encryptors.keySet(), defaultEncryptor != null);
+    }
+
+    private static TextEncryptor newEncryptor(String key, String salt) {
+        if (key.contains("-----BEGIN")) {
+            return new EncryptorFactory().create(key);
+        }
+        return Encryptors.text(key, salt);
+    }
+
+    /**
+     * Encrypts with the alias key and decrypts with it, retrying with the {@code encrypt.key} encryptor when that
+     * fails.
+     */
+    private static class DefaultKeyFallbackTextEncryptor implements TextEncryptor {
+        private final String alias;
+        private final TextEncryptor aliasEncryptor;
+        private final TextEncryptor defaultEncryptor;
+
+        DefaultKeyFallbackTextEncryptor(String alias, TextEncryptor aliasEncryptor, TextEncryptor defaultEncryptor) {
+            this.alias = alias;
+            this.aliasEncryptor = aliasEncryptor;
+            this.defaultEncryptor = defaultEncryptor;
+        }
+
+        @Override
+        public String encrypt(String text) {
+            return aliasEncryptor.encrypt(text);
+        }
+
+        @Override
+        public String decrypt(String encryptedText) {
+            try {
+                return aliasEncryptor.decrypt(encryptedText);
+            } catch (RuntimeException aliasFailure) {
+                try {
+                    String decrypted = defaultEncryptor.decrypt(encryptedText);
+                    LOG.debug("Decrypted value with encrypt.key instead of its alias key. alias={}", alias);
+                    return decrypted;
+                } catch (RuntimeException defaultFailure) {
+                    throw aliasFailure;
+                }
+            }
+        }
+    }
+}
@@ -1,34 +1,59 @@
 package com.github.checketts.config.server;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
-import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.joining;
 
 @Component
 public class KeySanitizationUtil {
 
     //Copied from org.springframework.boot.actuate.endpoint.Sanitizer to maintain parity
     private static final String[] REGEX_PARTS = {"*", "$", "^", "+"};
-    private final List<Pattern> sanitizedKeyPatterns;
+    // Any other regex syntax in a plain rule still has to go through the regex to keep its meaning
+    private static final Pattern PLAIN_SUFFIX = Pattern.compile("[\\w\\-]+");
+    private static final int MAX_CACHED_DECISIONS = 100_000;
+
+    private final String[] sanitizedKeySuffixes;
+    private final Pattern sanitizedKeyPattern;
+    private final Cache<String, Boolean> decisions;
 
     @Autowired
     public KeySanitizationUtil(
-            @Value("#{'${endpoints.env.keys-to-sanitize}'.split(',')}") List<String> keysToSanitize) {
-        this.sanitizedKeyPatterns = keysToSanitize.stream().map(KeySanitizationUtil::getPattern).collect(toList());
+            @Value("#{'${endpoints.env.keys-to-sanitize}'.split(',')}") List<String> keysToSanitize,
+            CacheMetrics cacheMetrics) {
+        List<String> suffixes = new ArrayList<>();
+        List<String> regexes = new ArrayList<>();
+        for (String value : keysToSanitize) {
+            if (!isRegex(value) && PLAIN_SUFFIX.matcher(value).matches()) {
+                suffixes.add(value);
+            } else {
+                regexes.add(getRegex(value));
+            }
+        }
+        this.sanitizedKeySuffixes = suffixes.toArray(new String[suffixes.size()]);
+        this.sanitizedKeyPattern = regexes.isEmpty() ? null : Pattern.compile(
+                regexes.stream().map(regex -> "(?:" + regex + ")").collect(joining("|")), Pattern.CASE_INSENSITIVE);
+        this.decisions = Caffeine.newBuilder()
+                .maximumSize(MAX_CACHED_DECISIONS)
+                .recordStats()
+                .build();
+        cacheMetrics.register("keySanitization", decisions);
     }
 
-    @SuppressWarnings("squid:UnusedPrivateMethod") //False positive from Sonar as it is used in constructor
     //Copied from org.springframework.boot.actuate.endpoint.Sanitizer to maintain parity
-    private static Pattern getPattern(String value) {
+    private static String getRegex(String value) {
         if (isRegex(value)) {
-            return Pattern.compile(value, Pattern.CASE_INSENSITIVE);
+            return value;
         }
-        return Pattern.compile(".*" + value + "$", Pattern.CASE_INSENSITIVE);
+        return ".*" + value + "$";
     }
 
     private static boolean isRegex(String value) {
@@ -41,7 +66,15 @@ public class KeySanitizationUtil {
     }
 
     public boolean shouldSanitize(String key) {
-        return sanitizedKeyPatterns.stream().anyMatch(pattern -> pattern.matcher(key).matches());
+        return decisions.get(key, this::matches);
+    }
 
+    private boolean matches(String key) {
+        for (String suffix : sanitizedKeySuffixes) {
+            if (key.regionMatches(true, key.length() - suffix.length(), suffix, 0, suffix.length())) {
+                return true;
+            }
+        }
+        return sanitizedKeyPattern != null && sanitizedKeyPattern.matcher(key).matches();
     }
 }
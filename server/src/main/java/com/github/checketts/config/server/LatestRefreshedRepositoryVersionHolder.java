@@ -1,5 +1,7 @@
 package com.github.checketts.config.server;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import java.util.concurrent.atomic.AtomicReference;
@@ -9,13 +11,34 @@ public class LatestRefreshedRepositoryVersionHolder {
 
     public static final String UNKNOWN_REPOSITORY_VERSION = "unknown";
 
+    private final ApplicationEventPublisher eventPublisher;
+
     private AtomicReference<String> latestRefreshedRepositoryVersion = new AtomicReference<>(UNKNOWN_REPOSITORY_VERSION);
 
+    @Autowired
+    public LatestRefreshedRepositoryVersionHolder(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
     public String getLatestRefreshedRepositoryVersion() {
         return latestRefreshedRepositoryVersion.get();
     }
 
+    public boolean isRepositoryVersionKnown() {
+        return !UNKNOWN_REPOSITORY_VERSION.equals(getLatestRefreshedRepositoryVersion());
+    }
+
     public void setLatestRefreshedRepositoryVersion(String latestRefreshedRepositoryVersion) {
-        this.latestRefreshedRepositoryVersion.set(latestRefreshedRepositoryVersion);
+        String currentVersion = getLatestRefreshedRepositoryVersion();
+        if (!currentVersion.equals(latestRefreshedRepositoryVersion)) {
+            // Listeners (e.g. cache warming) run before the swap, while requests still see the current version
+            eventPublisher.publishEvent(new RepositoryVersionChangingEvent(this, currentVersion,
+                    latestRefreshedRepositoryVersion));
+        }
+        String previousVersion = this.latestRefreshedRepositoryVersion.getAndSet(latestRefreshedRepositoryVersion);
+        if (!previousVersion.equals(latestRefreshedRepositoryVersion)) {
+            eventPublisher.publishEvent(new RepositoryVersionChangedEvent(this, previousVersion,
+                    latestRefreshedRepositoryVersion));
+        }
     }
 }
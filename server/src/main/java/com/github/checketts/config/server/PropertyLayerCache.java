@@ -0,0 +1,75 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Parsed and flattened config files by path and content hash. Environments are composed from these shared,
+ * read-only layers, so a file like {@code application.yml} is parsed once per content instead of once per request.
+ * Callers hold on to the layers they use; this cache, bounded by the approximate heap used by the properties, only
+ * spares parsing content that was loaded before.
+ */
+@Component
+public class PropertyLayerCache {
+
+    private final Cache<Map.Entry<Path, String>, PropertyLayer> cache;
+
+    @Autowired
+    public PropertyLayerCache(@Value("${config.server.property-layer-cache.max-weight-bytes:134217728}") long maxWeightBytes,
+                              CacheMetrics cacheMetrics) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((Map.Entry<Path, String> key, PropertyLayer layer) ->
+                        (int) Math.min(Integer.MAX_VALUE, ResolvedEnvironmentCache.estimateSize(layer.getProperties())))
+                .recordStats()
+                .build();
+        cacheMetrics.register("propertyLayer", cache);
+    }
+
+    /**
+     * Reads the file and returns its layer, parsing it only if this content was not seen before.
+     */
+    public PropertyLayer load(Path file) throws IOException {
+        // Read once, so the hash always describes the content that was parsed even while the file is being written
+        byte[] content = Files.readAllBytes(file);
+        String contentHash = DigestUtils.md5DigestAsHex(content);
+        Map.Entry<Path, String> key = new SimpleImmutableEntry<>(file, contentHash);
+        PropertyLayer layer = cache.getIfPresent(key);
+        if (layer == null) {
+            layer = new PropertyLayer(contentHash, Collections.unmodifiableMap(
+                    StreamingYamlFlattener.flatten(new ByteArrayInputStream(content))));
+            cache.put(key, layer);
+        }
+        return layer;
+    }
+
+    public static class PropertyLayer {
+        private final String contentHash;
+        private final Map<String, Object> properties;
+
+        PropertyLayer(String contentHash, Map<String, Object> properties) {
+            this.contentHash = contentHash;
+            this.properties = properties;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public Map<String, Object> getProperties() {
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.checketts.config.server;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by {@link LatestRefreshedRepositoryVersionHolder} once a new repository version is visible to requests.
+ */
+public class RepositoryVersionChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String previousVersion;
+    private final String version;
+
+    public RepositoryVersionChangedEvent(Object source, String previousVersion, String version) {
+        super(source);
+        this.previousVersion = previousVersion;
+        this.version = version;
+    }
+
+    public String getPreviousVersion() {
+        return previousVersion;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.checketts.config.server;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published synchronously by {@link LatestRefreshedRepositoryVersionHolder} before a new repository version becomes
+ * visible to requests, so listeners can prepare for it while requests are still served from the previous version.
+ */
+public class RepositoryVersionChangingEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String currentVersion;
+    private final String version;
+
+    public RepositoryVersionChangingEvent(Object source, String currentVersion, String version) {
+        super(source);
+        this.currentVersion = currentVersion;
+        this.version = version;
+    }
+
+    public String getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the repository version of repositories that do not publish their own, e.g. git. Every
+ * {@code poll-millis} the {@code application} environment of the default label and of every recently requested
+ * label is resolved, and the versions they report (the commit ids for git) make up the repository version. A change
+ * on any requested label therefore makes a new version. While the repository reports no version, it stays unknown
+ * and environments are resolved on every request.
+ */
+@Component
+public class RepositoryVersionPoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryVersionPoller.class);
+    private static final String APPLICATION = "application";
+    private static final String DEFAULT_PROFILE = "default";
+    private static final String DEFAULT_LABEL = "";
+
+    private final EnvironmentRepository repository;
+    private final LatestRefreshedRepositoryVersionHolder versionHolder;
+    private final long pollMillis;
+    private final Cache<String, Boolean> recentLabels = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+    private ScheduledExecutorService pollExecutor;
+
+    @Autowired
+    public RepositoryVersionPoller(EnvironmentRepository repository,
+                                   LatestRefreshedRepositoryVersionHolder versionHolder,
+                                   @Value("${config.server.repository-version.poll-millis:5000}") long pollMillis) {
+        this.repository = repository;
+        this.versionHolder = versionHolder;
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Started once the application is ready, so the listeners of the first version are registered.
+     */
+    @EventListener
+    public synchronized void onApplicationReady(ApplicationReadyEvent event) {
+        if (pollExecutor != null || repository instanceof VersionedEnvironmentRepository) {
+            // Versioned repositories publish their own versions
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-version-poll-");
+        threadFactory.setDaemon(true);
+        pollExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        pollExecutor.scheduleWithFixedDelay(this::poll, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (pollExecutor != null) {
+            pollExecutor.shutdownNow();
+        }
+    }
+
+    public void track(String label) {
+        if (label != null) {
+            recentLabels.put(label, Boolean.TRUE);
+        }
+    }
+
+    //@VisibleForTesting
+    void poll() {
+        try {
+            List<String> labels = new ArrayList<>(recentLabels.asMap().keySet());
+            labels.add(DEFAULT_LABEL);
+            Map<String, String> versions = new TreeMap<>();
+            for (String label : labels) {
+                Environment env = repository.findOne(APPLICATION, DEFAULT_PROFILE,
+                        DEFAULT_LABEL.equals(label) ? null : label.replace("(_)", "/"));
+                if (env.getVersion() == null) {
+                    LOG.debug("Repository does not report versions, environments are not cached. label={}", label);
+                    return;
+                }
+                versions.put(label, env.getVersion());
+            }
+            versionHolder.setLatestRefreshedRepositoryVersion(version(versions));
+        } catch (RuntimeException e) {
+            LOG.warn("Cannot poll repository version, keeping the current one. version={}",
+                    versionHolder.getLatestRefreshedRepositoryVersion(), e);
+        }
+    }
+
+    /**
+     * @return the version of the default label alone, so it matches the repository's own version while no other
+     * label is requested
+     */
+    private static String version(Map<String, String> versions) {
+        if (versions.size() == 1) {
+            return versions.get(DEFAULT_LABEL);
+        }
+        StringBuilder content = new StringBuilder();
+        versions.forEach((label, version) -> content.append(label).append('=').append(version).append('\n'));
+        return DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
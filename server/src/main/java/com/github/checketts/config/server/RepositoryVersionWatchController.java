@@ -0,0 +1,113 @@
+package com.github.checketts.config.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets clients wait for the repository version to move past the one they hold instead of polling for changes.
+ * Waiting requests are parked as async servlet requests, so they hold no thread until the version changes.
+ */
+@RestController
+@RequestMapping(method = RequestMethod.GET, value = "/config/watch")
+public class RepositoryVersionWatchController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryVersionWatchController.class);
+    private static final String VERSION = "version";
+
+    private final LatestRefreshedRepositoryVersionHolder versionHolder;
+    private final long timeoutMillis;
+    private final Set<DeferredResult<ResponseEntity<Map<String, String>>>> longPolls = ConcurrentHashMap.newKeySet();
+    private final Set<SseEmitter> emitters = ConcurrentHashMap.newKeySet();
+    private final ExecutorService notifier;
+
+    @Autowired
+    public RepositoryVersionWatchController(LatestRefreshedRepositoryVersionHolder versionHolder,
+                                            @Value("${config.server.watch.timeout-seconds:55}") long timeoutSeconds,
+                                            @Value("${config.server.watch.notifier-threads:2}") int notifierThreads) {
+        this.versionHolder = versionHolder;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-watch-");
+        threadFactory.setDaemon(true);
+        this.notifier = Executors.newFixedThreadPool(notifierThreads, threadFactory);
+    }
+
+    /**
+     * Long-poll: completes with the new version as soon as it differs from {@code version}, or with 304 once the
+     * timeout passes without a change.
+     */
+    @RequestMapping
+    public DeferredResult<ResponseEntity<Map<String, String>>> watch(@RequestParam String version) {
+        DeferredResult<ResponseEntity<Map<String, String>>> result = new DeferredResult<>(timeoutMillis,
+                new ResponseEntity<>(versionBody(version), HttpStatus.NOT_MODIFIED));
+        longPolls.add(result);
+        result.onCompletion(() -> longPolls.remove(result));
+        // Checked after registering so a change in between is not missed
+        String current = versionHolder.getLatestRefreshedRepositoryVersion();
+        if (!current.equals(version)) {
+            result.setResult(ResponseEntity.ok(versionBody(current)));
+        }
+        return result;
+    }
+
+    /**
+     * Server-sent events: sends a {@code version} event for the current version and for every change after it.
+     */
+    @RequestMapping("/stream")
+    public SseEmitter stream() throws IOException {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        emitters.add(emitter);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.send(SseEmitter.event().name(VERSION).data(versionHolder.getLatestRefreshedRepositoryVersion()));
+        return emitter;
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanged(RepositoryVersionChangedEvent event) {
+        LOG.info("Notifying watchers of repository version change. version={}, longPolls={}, streams={}",
+                event.getVersion(), longPolls.size(), emitters.size());
+        ResponseEntity<Map<String, String>> changed = ResponseEntity.ok(versionBody(event.getVersion()));
+        longPolls.forEach(result -> result.setResult(changed));
+        emitters.forEach(emitter -> notifier.execute(() -> send(emitter, event.getVersion())));
+    }
+
+    private void send(SseEmitter emitter, String version) {
+        try {
+            emitter.send(SseEmitter.event().name(VERSION).data(version));
+        } catch (IOException | IllegalStateException e) {
+            LOG.debug("Dropping disconnected watcher", e);
+            emitters.remove(emitter);
+        }
+    }
+
+    private static Map<String, String> versionBody(String version) {
+        return Collections.singletonMap(VERSION, version);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        notifier.shutdownNow();
+    }
+}
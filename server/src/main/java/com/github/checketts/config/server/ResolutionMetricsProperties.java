@@ -0,0 +1,46 @@
+package com.github.checketts.config.server;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties("config.server.resolution-metrics")
+@Component
+public class ResolutionMetricsProperties {
+    /**
+     * Whether the stages of resolving environments are timed and published on the metrics endpoint.
+     */
+    private boolean enabled = true;
+    /**
+     * Maximum number of (name, profiles) pairs with their own metrics, requests for further ones share the
+     * {@code other} series.
+     */
+    private int maxTaggedEnvironments = 100;
+    /**
+     * Requests taking at least this long are logged with their stage breakdown, 0 disables the log.
+     */
+    private long slowRequestThresholdMillis = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxTaggedEnvironments() {
+        return maxTaggedEnvironments;
+    }
+
+    public void setMaxTaggedEnvironments(int maxTaggedEnvironments) {
+        this.maxTaggedEnvironments = maxTaggedEnvironments;
+    }
+
+    public long getSlowRequestThresholdMillis() {
+        return slowRequestThresholdMillis;
+    }
+
+    public void setSlowRequestThresholdMillis(long slowRequestThresholdMillis) {
+        this.slowRequestThresholdMillis = slowRequestThresholdMillis;
+    }
+}
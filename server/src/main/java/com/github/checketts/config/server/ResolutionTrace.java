@@ -0,0 +1,111 @@
+package com.github.checketts.config.server;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Time spent in each stage of serving one environment request, plus what the stages processed. Stages that did not
+ * run, e.g. because the environment was cached, are absent. Used by the request thread only.
+ */
+public class ResolutionTrace {
+
+    public enum Stage {
+        REPOSITORY("repository"),
+        ASSIGNED_DEVICES("assignedDevices"),
+        DEVICE_FILTERING("deviceFiltering"),
+        SANITIZATION("sanitization"),
+        DECRYPTION("decryption"),
+        OVERRIDES("overrides"),
+        SERIALIZATION("serialization");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private final String name;
+    private final String profiles;
+    private final long startNanos = System.nanoTime();
+    private final Map<Stage, Long> stageNanos = new EnumMap<>(Stage.class);
+    private long decryptedValues;
+    private long filteredDeviceKeys;
+    private long payloadBytes = -1;
+    private boolean coalesced;
+
+    public ResolutionTrace(String name, String profiles) {
+        this.name = name;
+        this.profiles = profiles;
+    }
+
+    /**
+     * @return the start time to pass to {@link #stop(Stage, long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(Stage stage, long start) {
+        stageNanos.merge(stage, System.nanoTime() - start, Long::sum);
+    }
+
+    public void addDecryptedValues(long count) {
+        decryptedValues += count;
+    }
+
+    public void addFilteredDeviceKeys(long count) {
+        filteredDeviceKeys += count;
+    }
+
+    public void setPayloadBytes(long payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    /**
+     * Marks the request as served by a resolution another request started, so its own stages did not run.
+     */
+    public void setCoalesced() {
+        this.coalesced = true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProfiles() {
+        return profiles;
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public Map<Stage, Long> getStageNanos() {
+        return Collections.unmodifiableMap(stageNanos);
+    }
+
+    public long getDecryptedValues() {
+        return decryptedValues;
+    }
+
+    public long getFilteredDeviceKeys() {
+        return filteredDeviceKeys;
+    }
+
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return the size of the response body, or -1 if it was not serialized by the config server itself
+     */
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+}
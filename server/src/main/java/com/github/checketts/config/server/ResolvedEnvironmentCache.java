@@ -0,0 +1,124 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fully resolved (decrypted and device filtered) environments by request coordinates and repository version.
+ * Cached environments are shared between requests and must be treated as read-only.
+ * <p>
+ * Publishes the heap footprint of the cached environments as {@code environment.heap.total}, what they would take
+ * as independent copies, and {@code environment.heap.unique}, what they take with property sources shared through
+ * {@link SharedPropertySources}.
+ */
+@Component
+public class ResolvedEnvironmentCache implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResolvedEnvironmentCache.class);
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final boolean enabled;
+    private final Cache<EnvironmentCacheKey, Environment> cache;
+    // Shared property sources are immutable, so their size only needs to be estimated once
+    private final Cache<Map<?, ?>, Long> sourceSizes = Caffeine.newBuilder().weakKeys().build();
+
+    @Autowired
+    public ResolvedEnvironmentCache(EnvironmentCacheProperties properties, CacheMetrics cacheMetrics) {
+        this.enabled = properties.isEnabled();
+        // Caffeine can bound by count or by weight, not both, so every entry weighs at least its share of the
+        // weight budget which caps the entry count at maxEntries
+        long minimumWeight = Math.max(1, properties.getMaxWeightBytes() / Math.max(1, properties.getMaxEntries()));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxWeightBytes())
+                .weigher((EnvironmentCacheKey key, Environment env) ->
+                        (int) Math.min(Integer.MAX_VALUE, Math.max(minimumWeight, estimateSize(env))))
+                .recordStats()
+                .build();
+        cacheMetrics.register("environment", cache);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Environment get(EnvironmentCacheKey key) {
+        return enabled ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(EnvironmentCacheKey key, Environment environment) {
+        if (enabled) {
+            cache.put(key, environment);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long total = 0;
+        long unique = 0;
+        Set<Map<?, ?>> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Environment env : cache.asMap().values()) {
+            for (PropertySource source : env.getPropertySources()) {
+                long size = sourceSizes.get(source.getSource(), ResolvedEnvironmentCache::estimateSize);
+                total += size;
+                if (counted.add(source.getSource())) {
+                    unique += size;
+                }
+            }
+        }
+        return Arrays.asList(
+                new Metric<>("environment.heap.total", total),
+                new Metric<>("environment.heap.unique", unique),
+                new Metric<>("environment.heap.saved", total - unique));
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanged(RepositoryVersionChangedEvent event) {
+        long before = cache.estimatedSize();
+        cache.asMap().keySet().removeIf(key -> !event.getVersion().equals(key.getVersion()));
+        LOG.info("Repository version changed, evicted cached environments. from={}, to={}, evicted={}",
+                event.getPreviousVersion(), event.getVersion(), before - cache.estimatedSize());
+    }
+
+    @EventListener
+    public void onEncryptionKeysChanged(EncryptionKeysChangedEvent event) {
+        long before = cache.estimatedSize();
+        cache.asMap().keySet().removeIf(key -> key.getKeysGeneration() != event.getGeneration());
+        LOG.info("Encryption keys changed, evicted cached environments. generation={}, evicted={}",
+                event.getGeneration(), before - cache.estimatedSize());
+    }
+
+    //@VisibleForTesting
+    static long estimateSize(Environment env) {
+        long size = 0;
+        for (PropertySource source : env.getPropertySources()) {
+            size += estimateSize(source.getSource());
+        }
+        return size;
+    }
+
+    static long estimateSize(Map<?, ?> properties) {
+        long size = 0;
+        for (Map.Entry<?, ?> entry : properties.entrySet()) {
+            size += ENTRY_OVERHEAD_BYTES + 2L * String.valueOf(entry.getKey()).length();
+            Object value = entry.getValue();
+            size += value instanceof CharSequence ? 2L * ((CharSequence) value).length() : 16;
+        }
+        return size;
+    }
+}
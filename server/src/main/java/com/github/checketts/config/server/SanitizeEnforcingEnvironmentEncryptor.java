@@ -1,54 +1,175 @@
 package com.github.checketts.config.server;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.config.environment.Environment;
 import org.springframework.cloud.config.environment.PropertySource;
-import org.springframework.cloud.config.server.encryption.CipherEnvironmentEncryptor;
 import org.springframework.cloud.config.server.encryption.EnvironmentEncryptor;
 import org.springframework.cloud.config.server.encryption.TextEncryptorLocator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
+import javax.annotation.PreDestroy;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Decrypts {@code {cipher}} values of keys registered for sanitization, withholding all others. Replaces
+ * {@link org.springframework.cloud.config.server.encryption.CipherEnvironmentEncryptor}: only sources holding
+ * ciphertext are copied, others are passed on as they are, distinct ciphertexts are decrypted in parallel on a
+ * bounded pool and plaintexts are cached by encryptor and ciphertext for a limited time.
+ */
 @Component
 public class SanitizeEnforcingEnvironmentEncryptor implements EnvironmentEncryptor {
 
     public static final String DECRYPT_WITHHELD_MSG =
             "Decrypted value withheld because key is not registered for sanitization";
+    private static final String CIPHER_PREFIX = "{cipher}";
     private final static Logger LOG = LoggerFactory.getLogger(SanitizeEnforcingEnvironmentEncryptor.class);
 
-    private final CipherEnvironmentEncryptor delegate;
+    private final TextEncryptorLocator textEncryptorLocator;
     private final KeySanitizationUtil keySanitizationUtil;
+    private final ExecutorService decryptionExecutor;
+    // By encryptor rather than key alias, so plaintexts of keys replaced on a refresh are not served
+    private final Cache<Map.Entry<TextEncryptor, String>, String> plaintexts;
 
     @Autowired
     public SanitizeEnforcingEnvironmentEncryptor(TextEncryptorLocator textEncryptorLocator,
-                                                 KeySanitizationUtil keySanitizationUtil) {
-        this.delegate = new CipherEnvironmentEncryptor(textEncryptorLocator);
+                                                 KeySanitizationUtil keySanitizationUtil,
+                                                 DecryptionProperties decryptionProperties,
+                                                 CacheMetrics cacheMetrics) {
+        this.textEncryptorLocator = textEncryptorLocator;
         this.keySanitizationUtil = keySanitizationUtil;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-decrypt-");
+        threadFactory.setDaemon(true);
+        // Callers decrypt on their own thread once the queue is full rather than failing the request
+        this.decryptionExecutor = new ThreadPoolExecutor(decryptionProperties.getThreads(),
+                decryptionProperties.getThreads(), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(decryptionProperties.getQueueCapacity()), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.plaintexts = Caffeine.newBuilder()
+                .maximumSize(decryptionProperties.getCacheMaxEntries())
+                .expireAfterWrite(decryptionProperties.getCacheTtlSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        cacheMetrics.register("plaintext", plaintexts);
     }
 
     @Override
     public Environment decrypt(Environment environment) {
+        return decrypt(environment, new ResolutionTrace(environment.getName(),
+                StringUtils.arrayToCommaDelimitedString(environment.getProfiles())));
+    }
+
+    /**
+     * Same as {@link #decrypt(Environment)}, recording sanitization and decryption as separate stages of the trace.
+     */
+    public Environment decrypt(Environment environment, ResolutionTrace trace) {
+        long sanitizationStart = trace.start();
         Environment sanitizedEnv = new Environment(environment.getName(),
                 environment.getProfiles(), environment.getLabel(), environment.getVersion());
+        String profiles = StringUtils.arrayToCommaDelimitedString(environment.getProfiles());
+        Map<Map.Entry<TextEncryptor, String>, CompletableFuture<String>> decryptions = new HashMap<>();
+        List<PendingValue> pendingValues = new ArrayList<>();
+
         for (PropertySource source : environment.getPropertySources()) {
-            Map<Object, Object> map = new LinkedHashMap<>(source.getSource());
-            for (Map.Entry<Object, Object> entry : new LinkedHashSet<>(map.entrySet())) {
-                Object key = entry.getKey();
-                String name = key.toString();
-                String value = entry.getValue().toString();
-                if (value.startsWith("{cipher}") && !keySanitizationUtil.shouldSanitize(name)) {
-                    LOG.warn("Not decrypting value because key is not registered for sanitization. key={}", key);
-                    map.remove(key);
-                    map.put(name, DECRYPT_WITHHELD_MSG);
+            Map<Object, Object> map = null;
+            for (Map.Entry<?, ?> entry : source.getSource().entrySet()) {
+                String value = String.valueOf(entry.getValue());
+                if (!value.startsWith(CIPHER_PREFIX)) {
+                    continue;
+                }
+                if (map == null) {
+                    map = new LinkedHashMap<>(source.getSource());
+                }
+                String name = entry.getKey().toString();
+                if (!keySanitizationUtil.shouldSanitize(name)) {
+                    LOG.warn("Not decrypting value because key is not registered for sanitization. key={}", name);
+                    map.put(entry.getKey(), DECRYPT_WITHHELD_MSG);
+                    continue;
                 }
+                pendingValues.add(new PendingValue(map, name,
+                        decryption(environment.getName(), profiles, value, decryptions)));
             }
-            sanitizedEnv.add(new PropertySource(source.getName(), map));
+            sanitizedEnv.add(map == null ? source : new PropertySource(source.getName(), map));
+        }
+        // Includes queueing the decryptions, which already run in the background from here on
+        trace.stop(ResolutionTrace.Stage.SANITIZATION, sanitizationStart);
+
+        long decryptionStart = trace.start();
+        for (PendingValue pending : pendingValues) {
+            try {
+                pending.map.put(pending.name, pending.decryption.join());
+                trace.addDecryptedValues(1);
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                LOG.warn("Cannot decrypt key: {} ({}: {})", pending.name, cause.getClass(), cause.getMessage());
+                pending.map.remove(pending.name);
+                pending.map.put("invalid." + pending.name, "<n/a>");
+            }
+        }
+        trace.stop(ResolutionTrace.Stage.DECRYPTION, decryptionStart);
+        return sanitizedEnv;
+    }
+
+    private CompletableFuture<String> decryption(
+            String name, String profiles, String value,
+            Map<Map.Entry<TextEncryptor, String>, CompletableFuture<String>> decryptions) {
+        try {
+            String prefixed = value.substring(CIPHER_PREFIX.length());
+            EncryptorKeyPrefix prefix = EncryptorKeyPrefix.parse(name, profiles, prefixed);
+            TextEncryptor encryptor = textEncryptorLocator.locate(prefix.getKeys());
+            Map.Entry<TextEncryptor, String> cacheKey = new SimpleImmutableEntry<>(encryptor, prefix.getCipherText());
+            // Identical ciphertexts within the environment are only decrypted once
+            return decryptions.computeIfAbsent(cacheKey, this::decryptAsync);
+        } catch (RuntimeException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private CompletableFuture<String> decryptAsync(Map.Entry<TextEncryptor, String> cacheKey) {
+        String cached = plaintexts.getIfPresent(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            String plaintext = cacheKey.getKey().decrypt(cacheKey.getValue());
+            plaintexts.put(cacheKey, plaintext);
+            return plaintext;
+        }, decryptionExecutor);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        decryptionExecutor.shutdownNow();
+    }
+
+    private static class PendingValue {
+        final Map<Object, Object> map;
+        final String name;
+        final CompletableFuture<String> decryption;
+
+        PendingValue(Map<Object, Object> map, String name, CompletableFuture<String> decryption) {
+            this.map = map;
+            this.name = name;
+            this.decryption = decryption;
         }
-        return delegate.decrypt(sanitizedEnv);
     }
 }
@@ -0,0 +1,69 @@
+package com.github.checketts.config.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Hands out one shared, unmodifiable instance of each property source layer per repository version, so environments
+ * resolved for different applications and profiles reference the same maps instead of carrying copies of e.g.
+ * {@code application.yml}. A layer is identified by the label and source name, whether and to which device definitions
+ * it was filtered, and whether and with which keys it was decrypted. Layers are only held weakly and disappear once no
+ * cached environment references them.
+ */
+@Component
+public class SharedPropertySources {
+
+    // Distinct from every set of prefixes, including the empty set of a service without devices
+    private static final String UNFILTERED = "unfiltered";
+
+    private final Cache<List<Object>, Map<?, ?>> layers;
+
+    @Autowired
+    public SharedPropertySources(CacheMetrics cacheMetrics) {
+        this.layers = Caffeine.newBuilder()
+                .weakValues()
+                .recordStats()
+                .build();
+        cacheMetrics.register("sharedPropertySource", layers);
+    }
+
+    /**
+     * @param requiredPrefixes device definition prefixes kept by filtering, {@code null} if the source was not
+     *                         filtered
+     * @param decryptedWith    {@link KeyAliasTextEncryptorLocator#getGeneration() generation} of the encryption
+     *                         keys the layer was decrypted with, {@code null} if the source was not decrypted
+     * @param layer            creates the layer when no environment of this version created it yet
+     */
+    public PropertySource share(String version, String label, String sourceName, Collection<String> requiredPrefixes,
+                                Long decryptedWith, Supplier<Map<?, ?>> layer) {
+        if (LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION.equals(version)) {
+            return new PropertySource(sourceName, layer.get());
+        }
+        // Sorted so services assigned the same devices in a different order share the layer
+        Object filtering = requiredPrefixes == null ? UNFILTERED : new TreeSet<>(requiredPrefixes);
+        List<Object> key = Arrays.asList(version, label, sourceName, filtering, decryptedWith);
+        return new PropertySource(sourceName, layers.get(key, k -> Collections.unmodifiableMap(layer.get())));
+    }
+
+    @EventListener
+    public void onRepositoryVersionChanged(RepositoryVersionChangedEvent event) {
+        layers.asMap().keySet().removeIf(key -> !event.getVersion().equals(key.get(0)));
+    }
+
+    @EventListener
+    public void onEncryptionKeysChanged(EncryptionKeysChangedEvent event) {
+        layers.asMap().keySet().removeIf(key -> key.get(4) != null && !key.get(4).equals(event.getGeneration()));
+    }
+}
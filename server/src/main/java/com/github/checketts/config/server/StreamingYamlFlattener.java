@@ -0,0 +1,262 @@
+package com.github.checketts.config.server;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flattens YAML into {@code a.b[0].c} style keys straight from the parser events, producing the same properties as
+ * {@link org.springframework.beans.factory.config.YamlProcessor#getFlattenedMap(Map)} without building the document
+ * tree first. Besides the result, memory is proportional to the nesting depth and the size of anchored nodes, which
+ * are recorded so aliases can be replayed, and of mappings merged inline.
+ * <p>
+ * Later documents of a multi-document file override earlier ones. Merge keys ({@code <<}) are shallow as in YAML:
+ * a merged key is left out, with everything below it, when the mapping itself or an earlier merged mapping has it.
+ * As explicit keys may follow the merge key, merged mappings are flattened once the mapping ends. A key given twice
+ * in the same mapping is rejected, as {@link org.springframework.beans.factory.config.YamlProcessor} does.
+ */
+final class StreamingYamlFlattener {
+
+    private static final Resolver RESOLVER = new Resolver();
+    private static final String ROOT_DOCUMENT_KEY = "document";
+
+    private final Iterator<Event> events;
+    private final Map<String, Object> result;
+    private final Map<String, List<Event>> anchors;
+    private final List<List<Event>> recordings = new ArrayList<>();
+    private final ScalarConstructor constructor;
+
+    private StreamingYamlFlattener(Iterator<Event> events, Map<String, Object> result,
+                                   Map<String, List<Event>> anchors, ScalarConstructor constructor) {
+        this.events = events;
+        this.result = result;
+        this.anchors = anchors;
+        this.constructor = constructor;
+    }
+
+    static Map<String, Object> flatten(InputStream yaml) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Iterator<Event> events = new Yaml().parse(new UnicodeReader(yaml)).iterator();
+        new StreamingYamlFlattener(events, result, new HashMap<>(), new ScalarConstructor()).documents();
+        return result;
+    }
+
+    private void documents() {
+        while (events.hasNext()) {
+            if (next().is(Event.ID.DocumentStart)) {
+                Event root = next();
+                if (root.is(Event.ID.MappingStart)) {
+                    node("", root, true);
+                } else if (!isNull(root)) {
+                    // Like YamlProcessor, a document that is not a map is exposed as a single property
+                    node(ROOT_DOCUMENT_KEY, root, true);
+                }
+            }
+        }
+    }
+
+    private void node(String path, Event event, boolean emit) {
+        node(path, event, emit, Collections.emptySet());
+    }
+
+    /**
+     * @param emit     whether to put the properties of the node, otherwise it is only read past
+     * @param excluded top-level keys of a mapping to leave out
+     * @return the top-level keys of a mapping, merged ones included
+     */
+    private Set<String> node(String path, Event event, boolean emit, Set<String> excluded) {
+        if (event.is(Event.ID.Alias)) {
+            return replay(((AliasEvent) event).getAnchor(), path, emit, excluded);
+        }
+        String anchor = event instanceof NodeEvent ? ((NodeEvent) event).getAnchor() : null;
+        List<Event> recording = null;
+        if (anchor != null) {
+            recording = new ArrayList<>();
+            recording.add(event);
+            recordings.add(recording);
+        }
+
+        Set<String> keys = Collections.emptySet();
+        if (event.is(Event.ID.MappingStart)) {
+            keys = mapping(path, emit, excluded);
+        } else if (event.is(Event.ID.SequenceStart)) {
+            sequence(path, emit);
+        } else if (emit) {
+            put(path, value((ScalarEvent) event));
+        }
+
+        if (recording != null) {
+            recordings.remove(recordings.size() - 1);
+            anchors.put(anchor, recording);
+        }
+        return keys;
+    }
+
+    private Set<String> mapping(String path, boolean emit, Set<String> excluded) {
+        Set<String> keys = new HashSet<>();
+        List<List<Event>> merged = new ArrayList<>();
+        for (Event keyEvent = next(); !keyEvent.is(Event.ID.MappingEnd); keyEvent = next()) {
+            if (!keyEvent.is(Event.ID.Scalar)) {
+                throw new IllegalStateException("Only scalar keys are supported, at " + keyEvent.getStartMark());
+            }
+            ScalarEvent key = (ScalarEvent) keyEvent;
+            Event valueEvent = next();
+            if (Tag.MERGE.equals(tag(key))) {
+                if (valueEvent.is(Event.ID.SequenceStart)) {
+                    for (Event element = next(); !element.is(Event.ID.SequenceEnd); element = next()) {
+                        merged.add(mergedMapping(element));
+                    }
+                } else {
+                    merged.add(mergedMapping(valueEvent));
+                }
+            } else {
+                String name = key(key);
+                if (!keys.add(name)) {
+                    throw new IllegalStateException("Duplicate key " + name + ", at " + key.getStartMark());
+                }
+                node(join(path, name), valueEvent, emit && !excluded.contains(name));
+            }
+        }
+
+        // Earlier mappings of a merge sequence take precedence over later ones
+        Set<String> present = new HashSet<>(excluded);
+        present.addAll(keys);
+        for (List<Event> mapping : merged) {
+            Iterator<Event> replayed = mapping.iterator();
+            Set<String> mergedKeys = new StreamingYamlFlattener(replayed, result, anchors, constructor)
+                    .node(path, replayed.next(), emit, new HashSet<>(present));
+            present.addAll(mergedKeys);
+            keys.addAll(mergedKeys);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the events of the mapping to merge, recorded to be flattened once the keys it must not override are
+     * known
+     */
+    private List<Event> mergedMapping(Event event) {
+        List<Event> mapping;
+        if (event.is(Event.ID.Alias)) {
+            mapping = recorded(((AliasEvent) event).getAnchor());
+        } else {
+            mapping = new ArrayList<>();
+            mapping.add(event);
+            int depth = isStart(event) ? 1 : 0;
+            while (depth > 0) {
+                Event next = next();
+                mapping.add(next);
+                if (isStart(next)) {
+                    depth++;
+                } else if (next.is(Event.ID.MappingEnd) || next.is(Event.ID.SequenceEnd)) {
+                    depth--;
+                }
+            }
+        }
+        if (!mapping.get(0).is(Event.ID.MappingStart)) {
+            throw new IllegalStateException("Only mappings can be merged, at " + event.getStartMark());
+        }
+        return mapping;
+    }
+
+    private void sequence(String path, boolean emit) {
+        int index = 0;
+        for (Event element = next(); !element.is(Event.ID.SequenceEnd); element = next()) {
+            node(path + "[" + index++ + "]", element, emit);
+        }
+    }
+
+    private Set<String> replay(String anchor, String path, boolean emit, Set<String> excluded) {
+        Iterator<Event> replayed = recorded(anchor).iterator();
+        return new StreamingYamlFlattener(replayed, result, anchors, constructor)
+                .node(path, replayed.next(), emit, excluded);
+    }
+
+    private List<Event> recorded(String anchor) {
+        List<Event> recorded = anchors.get(anchor);
+        if (recorded == null) {
+            throw new IllegalStateException("Unknown anchor " + anchor);
+        }
+        return recorded;
+    }
+
+    private void put(String path, Object value) {
+        // Interned so the keys of a file parsed again for a new version are not held twice while both are in use
+        result.put(path.intern(), value);
+    }
+
+    private Event next() {
+        Event event = events.next();
+        for (List<Event> recording : recordings) {
+            recording.add(event);
+        }
+        return event;
+    }
+
+    private Object value(ScalarEvent event) {
+        Tag tag = tag(event);
+        if (Tag.STR.equals(tag)) {
+            return event.getValue();
+        }
+        // YamlProcessor maps null values to empty strings
+        return Tag.NULL.equals(tag) ? "" : constructor.construct(tag, event);
+    }
+
+    private String key(ScalarEvent event) {
+        Tag tag = tag(event);
+        // Same as YamlProcessor: keys that are not strings, e.g. numbers, are put in brackets
+        return Tag.STR.equals(tag) ? event.getValue() : "[" + constructor.construct(tag, event) + "]";
+    }
+
+    private static String join(String path, String key) {
+        if (path.isEmpty()) {
+            return key;
+        }
+        return key.startsWith("[") ? path + key : path + "." + key;
+    }
+
+    private static boolean isStart(Event event) {
+        return event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart);
+    }
+
+    private static boolean isNull(Event event) {
+        return event.is(Event.ID.Scalar) && Tag.NULL.equals(tag((ScalarEvent) event));
+    }
+
+    private static Tag tag(ScalarEvent event) {
+        if (event.getTag() != null && !"!".equals(event.getTag())) {
+            return new Tag(event.getTag());
+        }
+        return RESOLVER.resolve(NodeId.scalar, event.getValue(), event.getImplicit().canOmitTagInPlainScalar());
+    }
+
+    /**
+     * Constructs scalars the way SnakeYAML does when loading a document, without tracking constructed nodes.
+     */
+    private static class ScalarConstructor extends SafeConstructor {
+        Object construct(Tag tag, ScalarEvent event) {
+            ScalarNode node = new ScalarNode(tag, event.getValue(), event.getStartMark(), event.getEndMark(),
+                    event.getStyle());
+            return getConstructor(node).construct(node);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.checketts.config.server;
+
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+
+/**
+ * An {@link EnvironmentRepository} that can serve a repository version before it is published through
+ * {@link LatestRefreshedRepositoryVersionHolder}, so environments of a new version can be warmed while requests are
+ * still served the current one.
+ */
+public interface VersionedEnvironmentRepository extends EnvironmentRepository {
+
+    /**
+     * @param version the repository version being resolved, either the published one or the one about to be
+     *                published; other versions are served the published content
+     */
+    Environment findOne(String application, String profiles, String label, String version);
+}
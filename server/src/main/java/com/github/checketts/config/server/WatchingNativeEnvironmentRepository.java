@@ -0,0 +1,362 @@
+package com.github.checketts.config.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.config.server.environment.NativeEnvironmentRepository;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.ResourceUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the {@code native} profile from YAML files parsed once and re-parsed only when they change, instead of
+ * reloading every file on every request like {@link NativeEnvironmentRepository}. Changes are picked up through a
+ * {@link WatchService}, debounced, and published as a new content-hash repository version once the changed files
+ * are parsed. Each snapshot of the files holds on to the layers it was parsed into, so requests never read files;
+ * the {@link PropertyLayerCache} only spares parsing content that was seen before.
+ * The new content is served for the new version while it is warmed, and to everyone once the version is published.
+ * <p>
+ * Like {@link NativeEnvironmentRepository} only the top level of each search location is read, the label is ignored,
+ * and for profiles {@code p1,p2} the sources are {@code {name}-p2, application-p2, {name}-p1, application-p1, {name},
+ * application}, highest precedence first. Requests are delegated to {@link NativeEnvironmentRepository} while a
+ * search location is not a directory ({@code classpath:} in a jar) or has placeholders such as {@code {label}}, or
+ * while a search location holds {@code .properties} or {@code .json} files or YAML with profile-specific documents
+ * ({@code spring.profiles}).
+ */
+@Component
+@Primary
+@Profile("native")
+public class WatchingNativeEnvironmentRepository implements VersionedEnvironmentRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WatchingNativeEnvironmentRepository.class);
+    private static final String APPLICATION = "application";
+    private static final String PROFILES_PROPERTY = "spring.profiles";
+
+    private final NativeEnvironmentRepository nativeRepository;
+    private final List<Path> searchLocations;
+    private final boolean watchable;
+    private final LatestRefreshedRepositoryVersionHolder versionHolder;
+    private final PropertyLayerCache layerCache;
+    private final long debounceMillis;
+    private final Set<Path> changedFiles = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService reloadExecutor;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptySet());
+    // Snapshot of the version being published, served to resolutions of that version only
+    private volatile Snapshot pending;
+    private ScheduledFuture<?> scheduledReload;
+    private WatchService watchService;
+
+    @Autowired
+    public WatchingNativeEnvironmentRepository(NativeEnvironmentRepository nativeRepository,
+                                               LatestRefreshedRepositoryVersionHolder versionHolder,
+                                               PropertyLayerCache layerCache,
+                                               @Value("${config.server.native-watch.debounce-millis:100}") long debounceMillis) {
+        this.nativeRepository = nativeRepository;
+        this.searchLocations = new ArrayList<>();
+        this.watchable = directories(nativeRepository.getSearchLocations(), searchLocations);
+        this.versionHolder = versionHolder;
+        this.layerCache = layerCache;
+        this.debounceMillis = debounceMillis;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("config-native-watch-");
+        threadFactory.setDaemon(true);
+        this.reloadExecutor = Executors.newScheduledThreadPool(1, threadFactory);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!watchable) {
+            LOG.warn("Search locations cannot be watched, every request reads them. locations={}",
+                    Arrays.toString(nativeRepository.getSearchLocations()));
+            return;
+        }
+        watchService = searchLocations.isEmpty() ? null : searchLocations.get(0).getFileSystem().newWatchService();
+        for (Path location : searchLocations) {
+            location.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        reload(listConfigFiles());
+        if (watchService != null) {
+            Thread watcher = new Thread(this::watch, "config-native-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        reloadExecutor.shutdownNow();
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    @Override
+    public Environment findOne(String application, String profiles, String label) {
+        return findOne(application, profiles, label, snapshot);
+    }
+
+    @Override
+    public Environment findOne(String application, String profiles, String label, String version) {
+        Snapshot next = pending;
+        return findOne(application, profiles, label, next != null && next.version.equals(version) ? next : snapshot);
+    }
+
+    private Environment findOne(String application, String profiles, String label, Snapshot current) {
+        if (!watchable || !current.unsupportedFiles.isEmpty()) {
+            Environment environment = nativeRepository.findOne(application, profiles, label);
+            return watchable ? withVersion(environment, current.version) : environment;
+        }
+        String[] profileArray = StringUtils.commaDelimitedListToStringArray(profiles);
+        Environment environment = new Environment(application, profileArray, label, current.version);
+
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (int i = profileArray.length - 1; i >= 0; i--) {
+            fileNames.add(application + "-" + profileArray[i]);
+            fileNames.add(APPLICATION + "-" + profileArray[i]);
+        }
+        fileNames.add(application);
+        fileNames.add(APPLICATION);
+
+        for (String fileName : fileNames) {
+            // Later search locations take precedence, as in NativeEnvironmentRepository
+            for (int i = searchLocations.size() - 1; i >= 0; i--) {
+                for (String extension : new String[]{".yml", ".yaml"}) {
+                    Path file = searchLocations.get(i).resolve(fileName + extension);
+                    PropertyLayerCache.PropertyLayer layer = current.layers.get(file);
+                    if (layer != null) {
+                        environment.add(new PropertySource("file:" + file, layer.getProperties()));
+                    }
+                }
+            }
+        }
+        return environment;
+    }
+
+    private static Environment withVersion(Environment environment, String version) {
+        Environment versioned = new Environment(environment.getName(), environment.getProfiles(),
+                environment.getLabel(), version);
+        environment.getPropertySources().forEach(versioned::add);
+        return versioned;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        LOG.warn("Missed file change events, re-reading all files. directory={}", directory);
+                        changedFiles.addAll(listConfigFiles());
+                        changedFiles.addAll(snapshot.contentHashes.keySet());
+                    } else {
+                        Path file = directory.resolve((Path) event.context());
+                        if (isConfigFile(file)) {
+                            changedFiles.add(file);
+                        }
+                    }
+                }
+                key.reset();
+                scheduleReload();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching search locations");
+        }
+    }
+
+    /**
+     * Editors and copies usually write a file in several steps, so changes are only read once no further change
+     * arrived for {@code debounceMillis}.
+     */
+    private synchronized void scheduleReload() {
+        if (changedFiles.isEmpty()) {
+            return;
+        }
+        if (scheduledReload != null) {
+            scheduledReload.cancel(false);
+        }
+        scheduledReload = reloadExecutor.schedule(() -> {
+            List<Path> files = new ArrayList<>(changedFiles);
+            changedFiles.removeAll(files);
+            reload(files);
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void reload(Collection<Path> files) {
+        long start = System.nanoTime();
+        Map<Path, String> contentHashes = new HashMap<>(snapshot.contentHashes);
+        Map<Path, PropertyLayerCache.PropertyLayer> layers = new HashMap<>(snapshot.layers);
+        Set<Path> unsupportedFiles = new HashSet<>(snapshot.unsupportedFiles);
+        for (Path file : files) {
+            try {
+                if (isYaml(file)) {
+                    PropertyLayerCache.PropertyLayer layer = layerCache.load(file);
+                    contentHashes.put(file, layer.getContentHash());
+                    layers.put(file, layer);
+                    setUnsupported(unsupportedFiles, file, layer.getProperties().containsKey(PROFILES_PROPERTY));
+                } else {
+                    // Not parsed here, but hashed so their changes still make a new version
+                    try (InputStream content = Files.newInputStream(file)) {
+                        contentHashes.put(file, DigestUtils.md5DigestAsHex(content));
+                    }
+                    setUnsupported(unsupportedFiles, file, true);
+                }
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                contentHashes.remove(file);
+                layers.remove(file);
+                unsupportedFiles.remove(file);
+            } catch (IOException | RuntimeException e) {
+                // Keep serving the last parsed content rather than dropping the file on a partial write
+                LOG.warn("Cannot read config file, keeping previous content. file={}", file, e);
+            }
+        }
+
+        Snapshot next = new Snapshot(contentHashes, layers, unsupportedFiles);
+        LOG.info("Loaded config files. changed={}, files={}, version={}, durationMillis={}", files.size(),
+                contentHashes.size(), next.version, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!unsupportedFiles.isEmpty()) {
+            LOG.warn("Config files need the native repository, every request reads them. files={}",
+                    unsupportedFiles);
+        }
+        // Only published once every changed file is parsed, so a version never denotes half-applied changes. The
+        // version holder warms the new version before publishing it, which resolves from the pending snapshot.
+        pending = next;
+        try {
+            versionHolder.setLatestRefreshedRepositoryVersion(next.version);
+            snapshot = next;
+        } finally {
+            pending = null;
+        }
+    }
+
+    private static void setUnsupported(Set<Path> unsupportedFiles, Path file, boolean unsupported) {
+        if (unsupported) {
+            unsupportedFiles.add(file);
+        } else {
+            unsupportedFiles.remove(file);
+        }
+    }
+
+    private List<Path> listConfigFiles() {
+        List<Path> files = new ArrayList<>();
+        for (Path location : searchLocations) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(location)) {
+                stream.forEach(file -> {
+                    if (isConfigFile(file) && Files.isRegularFile(file)) {
+                        files.add(file);
+                    }
+                });
+            } catch (IOException e) {
+                LOG.warn("Cannot list search location. location={}", location, e);
+            }
+        }
+        return files;
+    }
+
+    private static boolean isYaml(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".yml") || fileName.endsWith(".yaml");
+    }
+
+    /**
+     * Also the file types only {@link NativeEnvironmentRepository} reads, so their presence is noticed.
+     */
+    private static boolean isConfigFile(Path file) {
+        String fileName = file.getFileName().toString();
+        return isYaml(file) || fileName.endsWith(".properties") || fileName.endsWith(".json");
+    }
+
+    /**
+     * Adds the directories of the search locations.
+     *
+     * @return false if a location exists but cannot be watched as a directory
+     */
+    private static boolean directories(String[] locations, List<Path> directories) {
+        ResourceLoader resourceLoader = new DefaultResourceLoader();
+        boolean watchable = true;
+        for (String location : locations) {
+            String trimmed = location.trim();
+            if (trimmed.contains("{")) {
+                LOG.warn("Search location has placeholders and cannot be watched. location={}", location);
+                watchable = false;
+                continue;
+            }
+            try {
+                Path directory = ResourceUtils.getFile(trimmed).toPath().toAbsolutePath().normalize();
+                if (Files.isDirectory(directory)) {
+                    directories.add(directory);
+                }
+            } catch (FileNotFoundException e) {
+                if (resourceLoader.getResource(trimmed).exists()) {
+                    LOG.warn("Search location is not a directory and cannot be watched. location={}", location);
+                    watchable = false;
+                }
+            }
+        }
+        return watchable;
+    }
+
+    private static class Snapshot {
+        final Map<Path, String> contentHashes;
+        final Map<Path, PropertyLayerCache.PropertyLayer> layers;
+        // Files only the native repository can serve
+        final Set<Path> unsupportedFiles;
+        final String version;
+
+        Snapshot(Map<Path, String> contentHashes, Map<Path, PropertyLayerCache.PropertyLayer> layers,
+                 Set<Path> unsupportedFiles) {
+            this.contentHashes = contentHashes;
+            this.layers = layers;
+            this.unsupportedFiles = unsupportedFiles;
+            // Sorted so the version only depends on the content, not on the order files were read in
+            StringBuilder content = new StringBuilder();
+            new TreeMap<>(contentHashes).forEach((file, contentHash) -> content.append(file).append('=')
+                    .append(contentHash).append('\n'));
+            this.version = DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
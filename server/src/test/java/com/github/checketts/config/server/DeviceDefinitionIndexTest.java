@@ -0,0 +1,86 @@
+package com.github.checketts.config.server;
+
+import org.junit.Test;
+import org.springframework.cloud.config.environment.PropertySource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class DeviceDefinitionIndexTest {
+
+    private static final String USERS_DB = "deviceDefinitions.MYSQL.subtypes.USERS_DB";
+
+    @Test
+    public void collectsOnlyWholeSegmentsBelowThePrefix() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put(USERS_DB + ".devices[1].id", "userdb1");
+        properties.put(USERS_DB + ".devices[1].password", "secret1");
+        properties.put(USERS_DB + ".devices[10].id", "userdb10");
+        properties.put(USERS_DB + ".devices[10].password", "secret10");
+        DeviceDefinitionIndex index = index(properties);
+
+        Map<String, Object> collected = new LinkedHashMap<>();
+        index.collect(USERS_DB + ".devices[1]", collected::put);
+
+        assertThat(collected.keySet(), contains(USERS_DB + ".devices[1].id", USERS_DB + ".devices[1].password"));
+    }
+
+    @Test
+    public void collectsNothingForAnUnknownPrefix() {
+        DeviceDefinitionIndex index = index(Collections.singletonMap(USERS_DB + ".devices[0].id", "userdb"));
+
+        Map<String, Object> collected = new LinkedHashMap<>();
+        index.collect("deviceDefinitions.CACHE", collected::put);
+
+        assertEquals(Collections.emptyMap(), collected);
+    }
+
+    @Test
+    public void indexesDevicePrefixesByIdAndKeepsOtherProperties() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("devices[0]", "userdb");
+        properties.put("greeter.name", "Clint");
+        properties.put(USERS_DB + ".devices[0].id", "userdb");
+        properties.put("deviceDefinitions.CACHE.devices[0].id", "userCache");
+        DeviceDefinitionIndex index = index(properties);
+
+        assertThat(index.getDevicePrefixes("userdb"), contains(USERS_DB + ".devices[0]"));
+        assertThat(index.getDeviceIds(), containsInAnyOrder("userdb", "userCache"));
+        assertThat(index.getAssignedDeviceIds(), contains("userdb"));
+        assertThat(index.getOtherProperties().keySet(), contains((Object) "devices[0]", "greeter.name"));
+        assertEquals(2, index.getDeviceDefinitionCount());
+    }
+
+    @Test
+    public void sourceWithoutDevicesHasNoDeviceDefinitions() {
+        DeviceDefinitionIndex index = index(Collections.singletonMap("greeter.name", "Clint"));
+
+        assertFalse(index.hasDeviceDefinitions());
+        assertThat(index.getAssignedDeviceIds(), empty());
+        assertThat(index.getDevicePrefixes("userdb"), empty());
+    }
+
+    @Test
+    public void hierarchyRequiresTheDefaultsOfEveryTypeOfTheDeviceOnce() {
+        Map<String, Object> properties = Collections.singletonMap(USERS_DB + ".devices[0].id", "userdb");
+        // The same definition in two sources, e.g. application.yml and application-{profile}.yml
+        DeviceTypeHierarchy hierarchy = new DeviceTypeHierarchy(Arrays.asList(index(properties), index(properties)));
+
+        assertEquals(1, hierarchy.getDevices("userdb").size());
+        assertThat(hierarchy.getDevices("userdb").iterator().next().getRequiredPrefixes(), contains(
+                USERS_DB + ".devices[0]", USERS_DB + ".defaults", "deviceDefinitions.MYSQL.defaults"));
+    }
+
+    private static DeviceDefinitionIndex index(Map<String, Object> properties) {
+        return new DeviceDefinitionIndex(new PropertySource("application.yml", properties));
+    }
+}
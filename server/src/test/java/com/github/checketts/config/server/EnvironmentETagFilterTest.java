@@ -0,0 +1,98 @@
+package com.github.checketts.config.server;
+
+import org.junit.Test;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EnvironmentETagFilterTest {
+
+    private static final String PATH = "/config/service/nightly1";
+
+    private final LatestRefreshedRepositoryVersionHolder versionHolder =
+            new LatestRefreshedRepositoryVersionHolder(new NoOpEventPublisher());
+    private final MockEnvironment encryptEnvironment = new MockEnvironment().withProperty("encrypt.key", "key");
+    private final KeyAliasTextEncryptorLocator encryptorLocator = new KeyAliasTextEncryptorLocator(
+            new EncryptProperties(), encryptEnvironment, new NoOpEventPublisher());
+    private final EnvironmentETagFilter filter = new EnvironmentETagFilter(versionHolder, encryptorLocator);
+
+    @Test
+    public void answersMatchingRequestsWithoutResolving() throws Exception {
+        versionHolder.setLatestRefreshedRepositoryVersion("v1");
+        String etag = get(null, HttpServletResponse.SC_OK).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletResponse response = get(etag, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void errorsCarryNoETag() throws Exception {
+        versionHolder.setLatestRefreshedRepositoryVersion("v1");
+
+        MockHttpServletResponse response = get(null, HttpServletResponse.SC_NOT_FOUND);
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void replacedEncryptionKeysChangeTheETag() throws Exception {
+        versionHolder.setLatestRefreshedRepositoryVersion("v1");
+        String etag = get(null, HttpServletResponse.SC_OK).getHeader(HttpHeaders.ETAG);
+
+        encryptEnvironment.setProperty("encrypt.key", "replacedKey");
+        encryptorLocator.onEnvironmentChange(new EnvironmentChangeEvent(Collections.singleton("encrypt.key")));
+        MockHttpServletResponse response = get(etag, HttpServletResponse.SC_OK);
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNotNull(response.getHeader(HttpHeaders.ETAG));
+        assertNotEquals(etag, response.getHeader(HttpHeaders.ETAG));
+    }
+
+    /**
+     * @param status the status the environment is served with if the filter passes the request on
+     */
+    private MockHttpServletResponse get(String ifNoneMatch, int status) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", PATH);
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setStatus(status);
+                resp.getWriter().write("{}");
+            }
+        }));
+        return response;
+    }
+
+    private static class NoOpEventPublisher implements ApplicationEventPublisher {
+        @Override
+        public void publishEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public void publishEvent(Object event) {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.checketts.config.server;
+
+import org.junit.Test;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class EnvironmentSnapshotHistoryTest {
+
+    private final EnvironmentSnapshotHistory history = new EnvironmentSnapshotHistory(500, 2, new CacheMetrics());
+
+    @Test
+    public void deltaContainsAddedChangedAndRemovedProperties() {
+        Map<String, Object> v1 = new LinkedHashMap<>();
+        v1.put("greeter.name", "Clint");
+        v1.put("greeter.from", "Utah");
+        v1.put("greeter.count", 1);
+        history.record(key("v1"), environment(v1));
+
+        Map<String, Object> v2 = new LinkedHashMap<>();
+        v2.put("greeter.name", "Clint");
+        v2.put("greeter.count", 2);
+        v2.put("greeter.enabled", true);
+        EnvironmentDelta delta = history.delta(key("v2"), "v1", environment(v2));
+
+        assertFalse(delta.isFull());
+        assertEquals("v1", delta.getFromVersion());
+        assertEquals("v2", delta.getVersion());
+        assertEquals(Collections.singletonMap("greeter.enabled", true), delta.getAdded());
+        assertEquals(Collections.singletonMap("greeter.count", 2), delta.getChanged());
+        assertThat(delta.getRemoved(), contains("greeter.from"));
+    }
+
+    @Test
+    public void earlierPropertySourcesTakePrecedence() {
+        history.record(key("v1"), environment(Collections.singletonMap("greeter.name", "Clint")));
+
+        Environment v2 = new Environment("service", "nightly1");
+        v2.add(new PropertySource("application-nightly1.yml", Collections.singletonMap("greeter.name", "Clint")));
+        v2.add(new PropertySource("application.yml", Collections.singletonMap("greeter.name", "Bob")));
+        EnvironmentDelta delta = history.delta(key("v2"), "v1", v2);
+
+        assertTrue(delta.getChanged().isEmpty());
+    }
+
+    @Test
+    public void fullResponseWhenTheFromVersionIsUnknown() {
+        Environment environment = environment(Collections.singletonMap("greeter.name", "Clint"));
+
+        EnvironmentDelta delta = history.delta(key("v2"), "v1", environment);
+
+        assertTrue(delta.isFull());
+        assertSame(environment, delta.getEnvironment());
+    }
+
+    @Test
+    public void evictsSnapshotsBeyondTheMostRecentVersions() {
+        Environment environment = environment(Collections.singletonMap("greeter.name", "Clint"));
+        history.onRepositoryVersionChanged(new RepositoryVersionChangedEvent(this, "unknown", "v1"));
+        history.record(key("v1"), environment);
+        history.onRepositoryVersionChanged(new RepositoryVersionChangedEvent(this, "v1", "v2"));
+        history.record(key("v2"), environment);
+
+        assertFalse(history.delta(key("v2"), "v1", environment).isFull());
+
+        history.onRepositoryVersionChanged(new RepositoryVersionChangedEvent(this, "v2", "v3"));
+
+        assertTrue(history.delta(key("v3"), "v1", environment).isFull());
+        assertFalse(history.delta(key("v3"), "v2", environment).isFull());
+    }
+
+    @Test
+    public void keepsTheStartupVersionWhoseChangeEventWasMissed() {
+        Environment environment = environment(Collections.singletonMap("greeter.name", "Clint"));
+        // Published on startup, before the history listened to version changes
+        history.record(key("v1"), environment);
+
+        history.onRepositoryVersionChanged(new RepositoryVersionChangedEvent(this, "v1", "v2"));
+        EnvironmentDelta delta = history.delta(key("v2"), "v1",
+                environment(Collections.singletonMap("greeter.name", "Bob")));
+
+        assertFalse(delta.isFull());
+        assertEquals(Collections.singletonMap("greeter.name", "Bob"), delta.getChanged());
+    }
+
+    private static EnvironmentCacheKey key(String version) {
+        return new EnvironmentCacheKey("service", "nightly1", null, version);
+    }
+
+    private static Environment environment(Map<String, Object> properties) {
+        Environment environment = new Environment("service", "nightly1");
+        environment.add(new PropertySource("application.yml", properties));
+        return environment;
+    }
+}
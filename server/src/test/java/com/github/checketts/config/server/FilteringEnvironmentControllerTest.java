@@ -0,0 +1,214 @@
+package com.github.checketts.config.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.config.server.config.ConfigServerProperties;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class FilteringEnvironmentControllerTest {
+
+    private static final String PROFILE = "nightly1";
+    private static final String VERSION = "v1";
+
+    private static final String KEY = "symmetricKeyValue";
+    private static final String SALT = "deadbeef";
+
+    private final TextEncryptor encryptor = Encryptors.text(KEY, SALT);
+    private final Map<String, Map<String, Object>> files = new HashMap<>();
+    private final MockEnvironment encryptEnvironment = new MockEnvironment()
+            .withProperty("encrypt.key", KEY)
+            .withProperty("encrypt.salt", SALT);
+    private final KeyAliasTextEncryptorLocator encryptorLocator = new KeyAliasTextEncryptorLocator(
+            new EncryptProperties(), encryptEnvironment, new NoOpEventPublisher());
+    private SanitizeEnforcingEnvironmentEncryptor environmentEncryptor;
+    private EnvironmentCacheWarmer cacheWarmer;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> devices = new LinkedHashMap<>();
+        devices.put("sample.password", cipher("samplePassword"));
+        devices.put("deviceDefinitions.MYSQL.defaults.maxPoolSize", 10);
+        devices.put("deviceDefinitions.MYSQL.subtypes.USERS_DB.defaults.username", "bobthefish");
+        devices.put("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[0].id", "userdb");
+        devices.put("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[0].password", cipher("userdbSecret"));
+        devices.put("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[1].id", "secretUserdb2");
+        devices.put("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[1].password", cipher("otherSecret"));
+        devices.put("deviceDefinitions.CACHE.devices[0].id", "userCache");
+        devices.put("deviceDefinitions.CACHE.devices[0].url", "something:1234");
+        files.put("application-" + PROFILE, devices);
+        files.put("withDevices-" + PROFILE, Collections.singletonMap("devices[0]", "userdb"));
+        files.put("noDevices-" + PROFILE, Collections.singletonMap("greeter.name", "Clint"));
+    }
+
+    @After
+    public void tearDown() {
+        if (environmentEncryptor != null) {
+            environmentEncryptor.shutdown();
+            cacheWarmer.shutdown();
+        }
+    }
+
+    @Test
+    public void serviceWithoutDevicesReceivesNoDeviceDefinitions() {
+        FilteringEnvironmentController controller = controller(VERSION);
+        // Shares the unfiltered and the fully decrypted layers the service's layers must not be confused with
+        controller.labelled("application", PROFILE, null);
+
+        Environment env = controller.labelled("noDevices", PROFILE, null);
+
+        assertThat(keys(env).keySet(), not(hasItem(startsWith("deviceDefinitions"))));
+        assertEquals("Clint", keys(env).get("greeter.name"));
+        assertEquals("samplePassword", keys(env).get("sample.password"));
+    }
+
+    @Test
+    public void serviceReceivesAssignedDevicesWithTheDefaultsOfTheirTypes() {
+        Map<String, Object> keys = keys(controller(VERSION).labelled("withDevices", PROFILE, null));
+
+        assertEquals(10, keys.get("deviceDefinitions.MYSQL.defaults.maxPoolSize"));
+        assertEquals("bobthefish", keys.get("deviceDefinitions.MYSQL.subtypes.USERS_DB.defaults.username"));
+        assertEquals("userdb", keys.get("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[0].id"));
+        assertEquals("userdbSecret", keys.get("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[0].password"));
+        assertThat(keys.keySet(), not(hasItem(startsWith("deviceDefinitions.MYSQL.subtypes.USERS_DB.devices[1]"))));
+        assertThat(keys.keySet(), not(hasItem(startsWith("deviceDefinitions.CACHE"))));
+    }
+
+    @Test
+    public void serviceWithoutDevicesReceivesNoDeviceDefinitionsWithoutKnownVersion() {
+        Environment env = controller(LatestRefreshedRepositoryVersionHolder.UNKNOWN_REPOSITORY_VERSION)
+                .labelled("noDevices", PROFILE, null);
+
+        assertThat(keys(env).keySet(), not(hasItem(startsWith("deviceDefinitions"))));
+    }
+
+    @Test
+    public void valuesDecryptedWithReplacedKeysAreNotServed() {
+        FilteringEnvironmentController controller = controller(VERSION);
+        assertEquals("samplePassword", keys(controller.labelled("noDevices", PROFILE, null)).get("sample.password"));
+
+        encryptEnvironment.setProperty("encrypt.key", "replacedKey");
+        encryptorLocator.onEnvironmentChange(new EnvironmentChangeEvent(Collections.singleton("encrypt.key")));
+
+        Map<String, Object> keys = keys(controller.labelled("noDevices", PROFILE, null));
+        assertThat(keys.keySet(), not(hasItem("sample.password")));
+        assertEquals("<n/a>", keys.get("invalid.sample.password"));
+    }
+
+    @Test
+    public void requestsWithoutAcceptAreServedCompressedFromTheResponseCache() throws Exception {
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller(VERSION)).build();
+
+        mvc.perform(get("/config/noDevices/" + PROFILE).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+    }
+
+    @Test
+    public void requestsAcceptingAnythingAreServedFromTheResponseCache() throws Exception {
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller(VERSION)).build();
+
+        mvc.perform(get("/config/noDevices/" + PROFILE + "/master").accept(MediaType.ALL))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    @Test
+    public void requestsForSmileAreServedSmile() throws Exception {
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller(VERSION)).build();
+
+        mvc.perform(get("/config/noDevices/" + PROFILE).accept(EnvironmentResponseCache.SMILE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(EnvironmentResponseCache.SMILE));
+    }
+
+    FilteringEnvironmentController controller(String version) {
+        CacheMetrics cacheMetrics = new CacheMetrics();
+        LatestRefreshedRepositoryVersionHolder versionHolder =
+                new LatestRefreshedRepositoryVersionHolder(new NoOpEventPublisher());
+        versionHolder.setLatestRefreshedRepositoryVersion(version);
+        environmentEncryptor = new SanitizeEnforcingEnvironmentEncryptor(encryptorLocator,
+                new KeySanitizationUtil(Arrays.asList("password", "secret", "key"), cacheMetrics),
+                new DecryptionProperties(), cacheMetrics);
+        cacheWarmer = new EnvironmentCacheWarmer(new CacheWarmingProperties());
+        return new FilteringEnvironmentController(this::findOne, environmentEncryptor, encryptorLocator,
+                new ConfigServerProperties(), versionHolder,
+                new RepositoryVersionPoller(this::findOne, versionHolder, 5000),
+                new ResolvedEnvironmentCache(new EnvironmentCacheProperties(), cacheMetrics),
+                new DeviceDefinitionIndexCache(cacheMetrics), new EnvironmentSnapshotHistory(500, 5, cacheMetrics),
+                new EnvironmentResponseCache(new ObjectMapper(), 1024 * 1024, cacheMetrics), cacheWarmer,
+                new SharedPropertySources(cacheMetrics),
+                new EnvironmentResolutionMetrics(new ResolutionMetricsProperties()));
+    }
+
+    String cipher(String plaintext) {
+        return "{cipher}" + encryptor.encrypt(plaintext);
+    }
+
+    /**
+     * Same source order as the native repository: {@code {name}-{profile}, application-{profile}}, highest
+     * precedence first.
+     */
+    private Environment findOne(String name, String profiles, String label) {
+        Environment env = new Environment(name, StringUtils.commaDelimitedListToStringArray(profiles), label,
+                VERSION);
+        for (String fileName : Arrays.asList(name + "-" + profiles, "application-" + profiles)) {
+            if (files.containsKey(fileName)) {
+                env.add(new PropertySource("file:" + fileName + ".yml", files.get(fileName)));
+            }
+        }
+        return env;
+    }
+
+    /**
+     * @return the properties of the environment, highest precedence winning
+     */
+    static Map<String, Object> keys(Environment env) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (PropertySource source : env.getPropertySources()) {
+            source.getSource().forEach((key, value) -> properties.putIfAbsent(key.toString(), value));
+        }
+        return properties;
+    }
+
+    private static class NoOpEventPublisher implements ApplicationEventPublisher {
+        @Override
+        public void publishEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public void publishEvent(Object event) {
+        }
+    }
+}
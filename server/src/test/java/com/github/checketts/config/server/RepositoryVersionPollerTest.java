@@ -0,0 +1,81 @@
+package com.github.checketts.config.server;
+
+import org.junit.Test;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class RepositoryVersionPollerTest {
+
+    private final Map<String, String> commits = new HashMap<>();
+    private final LatestRefreshedRepositoryVersionHolder versionHolder =
+            new LatestRefreshedRepositoryVersionHolder(new NoOpEventPublisher());
+    private final RepositoryVersionPoller poller = new RepositoryVersionPoller(this::findOne, versionHolder, 5000);
+
+    @Test
+    public void publishesTheVersionOfTheDefaultLabel() {
+        commits.put(null, "c1");
+        poller.poll();
+        assertEquals("c1", versionHolder.getLatestRefreshedRepositoryVersion());
+
+        commits.put(null, "c2");
+        poller.poll();
+        assertEquals("c2", versionHolder.getLatestRefreshedRepositoryVersion());
+    }
+
+    @Test
+    public void changesOfRequestedLabelsMakeANewVersion() {
+        commits.put(null, "c1");
+        commits.put("feature/x", "f1");
+        poller.track("feature(_)x");
+        poller.poll();
+        String version = versionHolder.getLatestRefreshedRepositoryVersion();
+
+        commits.put("feature/x", "f2");
+        poller.poll();
+
+        assertNotEquals(version, versionHolder.getLatestRefreshedRepositoryVersion());
+    }
+
+    @Test
+    public void versionStaysUnknownWithoutRepositoryVersions() {
+        poller.poll();
+
+        assertFalse(versionHolder.isRepositoryVersionKnown());
+    }
+
+    @Test
+    public void keepsTheVersionWhenTheRepositoryFails() {
+        commits.put(null, "c1");
+        poller.poll();
+        poller.track("missing");
+
+        poller.poll();
+
+        assertEquals("c1", versionHolder.getLatestRefreshedRepositoryVersion());
+    }
+
+    private Environment findOne(String application, String profiles, String label) {
+        if (label != null && !commits.containsKey(label)) {
+            throw new IllegalStateException("No such label: " + label);
+        }
+        return new Environment(application, new String[]{profiles}, label, commits.get(label));
+    }
+
+    private static class NoOpEventPublisher implements ApplicationEventPublisher {
+        @Override
+        public void publishEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public void publishEvent(Object event) {
+        }
+    }
+}
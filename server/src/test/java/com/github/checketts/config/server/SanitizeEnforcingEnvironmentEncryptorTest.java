@@ -0,0 +1,139 @@
+package com.github.checketts.config.server;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.crypto.encrypt.Encryptors;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class SanitizeEnforcingEnvironmentEncryptorTest {
+
+    private static final String SALT = "deadbeef";
+    private static final String DEFAULT_KEY = "defaultKey";
+    private static final String ALIAS = "nightly1_v1";
+    private static final String ALIAS_KEY = "aliasKey";
+    // "legacySecret" encrypted with DEFAULT_KEY, fixed because decrypting it with ALIAS_KEY must fail
+    private static final String ENCRYPTED_WITH_DEFAULT_KEY =
+            "61f0333bfa206d917bac6ba0bc82acc5867b97c988ce8730dba9bab487c138c3";
+
+    private final EncryptProperties encryptProperties = new EncryptProperties();
+    private final KeyAliasTextEncryptorLocator locator = locator(encryptProperties);
+    private final SanitizeEnforcingEnvironmentEncryptor encryptor = new SanitizeEnforcingEnvironmentEncryptor(
+            locator, new KeySanitizationUtil(Arrays.asList("password", "secret"), new CacheMetrics()),
+            new DecryptionProperties(), new CacheMetrics());
+
+    @After
+    public void tearDown() {
+        encryptor.shutdown();
+    }
+
+    @Test
+    public void decryptsWithTheKeyOfTheAlias() {
+        String cipher = "{cipher}{key:" + ALIAS + "}" + Encryptors.text(ALIAS_KEY, SALT).encrypt("userdbSecret");
+
+        assertEquals("userdbSecret", decrypt("db.password", cipher).get("db.password"));
+    }
+
+    @Test
+    public void decryptsWithEncryptKeyWithoutOrWithUnknownAlias() {
+        String cipherText = Encryptors.text(DEFAULT_KEY, SALT).encrypt("plainSecret");
+
+        assertEquals("plainSecret", decrypt("db.password", "{cipher}" + cipherText).get("db.password"));
+        assertEquals("plainSecret", decrypt("db.password", "{cipher}{key:unknown_v1}" + cipherText)
+                .get("db.password"));
+    }
+
+    @Test
+    public void fallsBackToEncryptKeyForAliasedValuesEncryptedWithIt() {
+        Map<?, ?> decrypted = decrypt("db.password", "{cipher}{key:" + ALIAS + "}" + ENCRYPTED_WITH_DEFAULT_KEY);
+
+        assertEquals("legacySecret", decrypted.get("db.password"));
+    }
+
+    @Test
+    public void doesNotServePlaintextsOfReplacedKeys() {
+        String cipher = "{cipher}{key:" + ALIAS + "}" + Encryptors.text(ALIAS_KEY, SALT).encrypt("userdbSecret");
+        decrypt("db.password", cipher);
+
+        encryptProperties.setKeys(Collections.singletonMap(ALIAS, "replacedAliasKey"));
+        locator.onEnvironmentChange(new EnvironmentChangeEvent(
+                Collections.singleton("config.server.encrypt.keys." + ALIAS)));
+
+        assertEquals("<n/a>", decrypt("db.password", cipher).get("invalid.db.password"));
+    }
+
+    @Test
+    public void withholdsValuesOfKeysNotRegisteredForSanitization() {
+        String cipher = "{cipher}{key:" + ALIAS + "}" + Encryptors.text(ALIAS_KEY, SALT).encrypt("notSecret");
+
+        assertEquals(SanitizeEnforcingEnvironmentEncryptor.DECRYPT_WITHHELD_MSG,
+                decrypt("greeter.name", cipher).get("greeter.name"));
+    }
+
+    @Test
+    public void replacesValuesThatCannotBeDecrypted() {
+        Map<?, ?> decrypted = decrypt("db.password", "{cipher}{key:" + ALIAS + "}notHex");
+
+        assertFalse(decrypted.containsKey("db.password"));
+        assertEquals("<n/a>", decrypted.get("invalid.db.password"));
+    }
+
+    @Test
+    public void passesOnSourcesWithoutCiphertext() {
+        Environment env = new Environment("service", "nightly1");
+        PropertySource plain = new PropertySource("application.yml", Collections.singletonMap("db.url", "jdbc:x"));
+        env.add(plain);
+
+        assertSame(plain, encryptor.decrypt(env).getPropertySources().get(0));
+    }
+
+    @Test
+    public void parsesKeyPrefixes() {
+        EncryptorKeyPrefix prefix = EncryptorKeyPrefix.parse("service", "nightly1", "{key:" + ALIAS + "}{plain}abc");
+
+        assertEquals(ALIAS, prefix.getKeys().get(KeyAliasTextEncryptorLocator.KEY_ALIAS));
+        assertEquals("service", prefix.getKeys().get(EncryptorKeyPrefix.NAME));
+        assertEquals("nightly1", prefix.getKeys().get(EncryptorKeyPrefix.PROFILES));
+        assertEquals("abc", prefix.getCipherText());
+        assertEquals("{x}abc", EncryptorKeyPrefix.parse("service", "nightly1", "{x}abc").getCipherText());
+    }
+
+    private Map<?, ?> decrypt(String key, String value) {
+        Environment env = new Environment("service", "nightly1");
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put(key, value);
+        env.add(new PropertySource("application.yml", properties));
+        return encryptor.decrypt(env).getPropertySources().get(0).getSource();
+    }
+
+    private static KeyAliasTextEncryptorLocator locator(EncryptProperties encryptProperties) {
+        encryptProperties.setKeys(Collections.singletonMap(ALIAS, ALIAS_KEY));
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("encrypt.key", DEFAULT_KEY);
+        environment.setProperty("encrypt.salt", SALT);
+        return new KeyAliasTextEncryptorLocator(encryptProperties, environment, new NoOpEventPublisher());
+    }
+
+    private static class NoOpEventPublisher implements ApplicationEventPublisher {
+        @Override
+        public void publishEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public void publishEvent(Object event) {
+        }
+    }
+}
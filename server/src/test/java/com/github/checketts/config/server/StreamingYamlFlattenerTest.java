@@ -0,0 +1,139 @@
+package com.github.checketts.config.server;
+
+import org.junit.Test;
+import org.springframework.beans.factory.config.YamlProcessor;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Every document must flatten to the same properties as {@link YamlProcessor}, which the native repository used to
+ * load files with.
+ */
+public class StreamingYamlFlattenerTest {
+
+    @Test
+    public void nestedMapsAndScalars() {
+        assertSameAsYamlProcessor("greeter:\n  name: Clint\n  count: 3\n  enabled: true\n  ratio: 0.5\n  none:\n");
+    }
+
+    @Test
+    public void lists() {
+        assertSameAsYamlProcessor("devices:\n  - userdb\n  - userCache\n"
+                + "deviceDefinitions:\n  CACHE:\n    devices:\n      - id: userCache\n        urls: [a, b]\n");
+    }
+
+    @Test
+    public void nestedLists() {
+        assertSameAsYamlProcessor("matrix:\n  - [1, 2]\n  - - 3\n    - {x: 4}\n");
+    }
+
+    @Test
+    public void emptyCollections() {
+        assertSameAsYamlProcessor("emptyMap: {}\nemptyList: []\nparent:\n  emptyMap: {}\n  emptyList: []\n"
+                + "  sibling: value\n");
+    }
+
+    @Test
+    public void duplicateKeysAreRejected() {
+        assertRejectedLikeYamlProcessor("greeter:\n  name: Clint\n  name: Bob\n");
+    }
+
+    @Test
+    public void duplicateKeysOfMapsAreRejected() {
+        assertRejectedLikeYamlProcessor("greeter:\n  name: Clint\n  from: Utah\ngreeter:\n  name: Bob\n");
+    }
+
+    @Test
+    public void sameKeyInDifferentMapsOrDocuments() {
+        assertSameAsYamlProcessor("a:\n  name: Clint\nb:\n  name: Bob\n---\na:\n  name: Other\n");
+    }
+
+    @Test
+    public void numberAndBooleanKeys() {
+        assertSameAsYamlProcessor("ports:\n  8080: http\n  true: yes\n");
+    }
+
+    @Test
+    public void anchorsAliasesAndMergeKeys() {
+        assertSameAsYamlProcessor("base: &base\n  timeout: 10\n  size: 1\n"
+                + "copy: *base\nmerged:\n  <<: *base\n  size: 2\n");
+    }
+
+    @Test
+    public void mergeKeysAreShallow() {
+        assertSameAsYamlProcessor("base: &b\n  a:\n    x: 1\n  c: 3\nother:\n  <<: *b\n  a:\n    y: 2\n");
+        assertSameAsYamlProcessor("base: &b\n  a:\n    x: 1\nother:\n  a:\n    y: 2\n  <<: *b\n");
+    }
+
+    @Test
+    public void earlierMappingsOfAMergeSequenceTakePrecedence() {
+        assertSameAsYamlProcessor("one: &one\n  a:\n    x: 1\ntwo: &two\n  a:\n    y: 2\n  b: 2\n"
+                + "merged:\n  <<: [*one, *two, {b: 3, c: {z: 3}}]\n");
+    }
+
+    @Test
+    public void mergedMappingsMergingOthers() {
+        assertSameAsYamlProcessor("base: &base\n  a:\n    x: 1\n  b: 1\n"
+                + "middle: &middle\n  <<: *base\n  b: 2\nmerged:\n  <<: *middle\n  a:\n    y: 3\n");
+    }
+
+    @Test
+    public void mergeKeysOfLaterDocumentsOverrideEarlierDocuments() {
+        assertSameAsYamlProcessor("greeter:\n  name: Clint\n---\nbase: &base\n  name: Bob\n"
+                + "greeter:\n  <<: *base\n");
+    }
+
+    @Test
+    public void laterDocumentsOverrideEarlierOnes() {
+        assertSameAsYamlProcessor("greeter:\n  name: Clint\n  from: Utah\n---\ngreeter:\n  name: Bob\n");
+    }
+
+    @Test
+    public void documentThatIsNotAMap() {
+        assertSameAsYamlProcessor("just a string\n");
+    }
+
+    @Test
+    public void emptyDocument() {
+        assertSameAsYamlProcessor("");
+    }
+
+    private static void assertSameAsYamlProcessor(String yaml) {
+        byte[] bytes = yaml.getBytes(StandardCharsets.UTF_8);
+        assertEquals(yamlProcessor(bytes), StreamingYamlFlattener.flatten(new ByteArrayInputStream(bytes)));
+    }
+
+    private static void assertRejectedLikeYamlProcessor(String yaml) {
+        byte[] bytes = yaml.getBytes(StandardCharsets.UTF_8);
+        try {
+            yamlProcessor(bytes);
+            fail("YamlProcessor accepted " + yaml);
+        } catch (RuntimeException expected) {
+            // Streaming must reject it too
+        }
+        try {
+            StreamingYamlFlattener.flatten(new ByteArrayInputStream(bytes));
+            fail("StreamingYamlFlattener accepted " + yaml);
+        } catch (IllegalStateException expected) {
+            // Same as YamlProcessor
+        }
+    }
+
+    private static Map<String, Object> yamlProcessor(byte[] yaml) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        new YamlProcessor() {
+            {
+                setResources(new ByteArrayResource(yaml));
+                process((properties, map) -> result.putAll(getFlattenedMap(map)));
+            }
+        };
+        return result;
+    }
+}